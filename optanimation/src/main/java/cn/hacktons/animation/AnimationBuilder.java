@@ -1,11 +1,16 @@
 package cn.hacktons.animation;
 
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.FloatRange;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.view.View;
 
+import java.io.File;
+import java.util.concurrent.Executor;
+
 /**
  * Builder to make {@link LazyAnimationDrawable} instance;
  * <h2>Usage</h2>
@@ -45,10 +50,27 @@ import android.view.View;
  */
 public class AnimationBuilder {
     private int[] frames;
+    private FrameSource source;
+    private int[] durations;
     private int duration = 1000 / 30;
     private int cacheSize = 0;
+    private long cacheBytes = 0;
     private boolean oneShot = false;
     private float percent = 0.69f;
+    private DecodeScheduler scheduler;
+    private int prefetch = 0;
+    private int targetWidth = 0;
+    private int targetHeight = 0;
+    private Bitmap.Config config = Bitmap.Config.ARGB_8888;
+    private EncodedFrameCache encodedCache;
+    private DiskFrameCache diskCache;
+    private boolean streaming = false;
+    private LateFramePolicy latePolicy = LateFramePolicy.HOLD;
+    /**
+     * -1 until set by {@link #maxDroppedFrames(int)}
+     */
+    private int maxDroppedFrames = -1;
+    private LazyAnimationDrawable.OnFrameDropListener dropListener;
 
     /**
      * set animation frames with duration
@@ -60,10 +82,112 @@ public class AnimationBuilder {
     public AnimationBuilder frames(@DrawableRes int[] frames, @IntRange(from = 1000 / 30) int
         duration) {
         this.frames = frames;
+        this.source = null;
+        this.durations = null;
+        this.duration = duration;
+        return this;
+    }
+
+    /**
+     * set animation frames decoded from a frame source, such as a sprite sheet
+     *
+     * @param source   animation frames
+     * @param duration animation duration, duration should not be smaller than 1000/30
+     * @return
+     * @see AtlasFrameSource
+     */
+    public AnimationBuilder frames(@NonNull FrameSource source, @IntRange(from = 1000 / 30) int
+        duration) {
+        this.source = source;
+        this.frames = null;
+        this.durations = null;
         this.duration = duration;
         return this;
     }
 
+    /**
+     * set animation frames with a duration of each frame
+     *
+     * @param frames    drawable resource of each frame
+     * @param durations milliseconds each frame is shown, as many as frames
+     * @return
+     */
+    public AnimationBuilder frames(@DrawableRes int[] frames, @NonNull int[] durations) {
+        this.frames = frames;
+        this.source = null;
+        this.durations = durations.clone();
+        return this;
+    }
+
+    /**
+     * set animation frames decoded from a frame source with a duration of each frame
+     *
+     * @param source    animation frames
+     * @param durations milliseconds each frame is shown, as many as the frames of the source
+     * @return
+     */
+    public AnimationBuilder frames(@NonNull FrameSource source, @NonNull int[] durations) {
+        this.source = source;
+        this.frames = null;
+        this.durations = durations.clone();
+        return this;
+    }
+
+    /**
+     * set animation frames of a container made by the packer tool, each frame is shown as long
+     * as packed
+     *
+     * @param container animation frames
+     * @return
+     */
+    public AnimationBuilder frames(@NonNull ContainerFrameSource container) {
+        this.source = container;
+        this.frames = null;
+        this.durations = new int[container.getFrameCount()];
+        for (int i = 0; i < durations.length; i++) {
+            durations[i] = container.getFrameDuration(i);
+        }
+        return this;
+    }
+
+    /**
+     * set animation frames of images in assets
+     *
+     * @param assets   asset manager of the app
+     * @param paths    asset path of each frame
+     * @param duration animation duration, duration should not be smaller than 1000/30
+     * @return
+     */
+    public AnimationBuilder frames(@NonNull AssetManager assets, @NonNull String[] paths,
+                                   @IntRange(from = 1000 / 30) int duration) {
+        return frames(new AssetFrameSource(assets, paths), duration);
+    }
+
+    /**
+     * set animation frames of image files, such as a downloaded animation pack
+     *
+     * @param files    image file of each frame
+     * @param duration animation duration, duration should not be smaller than 1000/30
+     * @return
+     * @see FileFrameSource#fromDirectory(File)
+     */
+    public AnimationBuilder frames(@NonNull File[] files, @IntRange(from = 1000 / 30) int
+        duration) {
+        return frames(new FileFrameSource(files), duration);
+    }
+
+    /**
+     * set animation frames of encoded images in memory
+     *
+     * @param frames   encoded png or jpg of each frame
+     * @param duration animation duration, duration should not be smaller than 1000/30
+     * @return
+     */
+    public AnimationBuilder frames(@NonNull byte[][] frames, @IntRange(from = 1000 / 30) int
+        duration) {
+        return frames(new ByteArrayFrameSource(frames), duration);
+    }
+
     /**
      * set cache size, the size is referred as bitmap count not byte size;<br>
      * you may also use {@link #cachePercent(float)} to calculate size automatically
@@ -89,6 +213,173 @@ public class AnimationBuilder {
         return this;
     }
 
+    /**
+     * set cache size in bytes, each cached bitmap is measured by its allocation byte count;<br>
+     * this takes precedence over {@link #cacheSize(int)} and {@link #cachePercent(float)}
+     *
+     * @param bytes max bytes of all cached bitmaps
+     * @return
+     * @see #cacheSize(int)
+     */
+    public AnimationBuilder maxCacheBytes(@IntRange(from = 1) long bytes) {
+        this.cacheBytes = bytes;
+        return this;
+    }
+
+    /**
+     * decode upcoming frames in background while the current one is shown, the window is capped
+     * by the room left in cache
+     *
+     * @param count number of frames to decode ahead, 0 to decode each frame when it's shown
+     * @return
+     */
+    public AnimationBuilder prefetch(@IntRange(from = 0) int count) {
+        this.prefetch = count;
+        return this;
+    }
+
+    /**
+     * set scheduler to decode frames on, animations share {@link DecodeScheduler#getDefault()}
+     * if not set
+     *
+     * @param scheduler decode scheduler
+     * @return
+     * @see #executor(Executor)
+     */
+    public AnimationBuilder decodeScheduler(@NonNull DecodeScheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * decode frames on the given executor, one frame at a time
+     *
+     * @param executor executor to decode frames on
+     * @return
+     * @see #decodeScheduler(DecodeScheduler)
+     */
+    public AnimationBuilder executor(@NonNull Executor executor) {
+        this.scheduler = new DecodeScheduler(executor, 1);
+        return this;
+    }
+
+    /**
+     * decode frames for the given size; by default frames are downsampled to the size they are
+     * drawn at on the target view
+     *
+     * @param width  width in pixels the frames are drawn at
+     * @param height height in pixels the frames are drawn at
+     * @return
+     */
+    public AnimationBuilder targetSize(@IntRange(from = 1) int width, @IntRange(from = 1) int
+        height) {
+        this.targetWidth = width;
+        this.targetHeight = height;
+        return this;
+    }
+
+    /**
+     * set config to decode frames with, {@link Bitmap.Config#RGB_565} takes half the memory of
+     * {@link Bitmap.Config#ARGB_8888} for opaque frames
+     *
+     * @param config bitmap config, ARGB_8888 by default
+     * @return
+     * @see #autoBitmapConfig()
+     */
+    public AnimationBuilder bitmapConfig(@NonNull Bitmap.Config config) {
+        this.config = config;
+        return this;
+    }
+
+    /**
+     * decode frames as {@link Bitmap.Config#RGB_565} if the first frame is a jpeg or a png
+     * without alpha, otherwise as {@link Bitmap.Config#ARGB_8888}
+     *
+     * @return
+     * @see #bitmapConfig(Bitmap.Config)
+     */
+    public AnimationBuilder autoBitmapConfig() {
+        this.config = null;
+        return this;
+    }
+
+    /**
+     * keep encoded frames in memory, frames evicted from the frame cache are decoded again
+     * without reading their source
+     *
+     * @param cache cache shared by animations, frames of sources which can't be read as bytes
+     *              are not kept
+     * @return
+     */
+    public AnimationBuilder encodedCache(@NonNull EncodedFrameCache cache) {
+        this.encodedCache = cache;
+        return this;
+    }
+
+    /**
+     * keep decoded frames on disk as raw pixels, later plays copy them instead of decoding
+     *
+     * @param cache cache shared by animations, frames of sources which can't be named are not
+     *              kept
+     * @return
+     */
+    public AnimationBuilder diskCache(@NonNull DiskFrameCache cache) {
+        this.diskCache = cache;
+        return this;
+    }
+
+    /**
+     * keep only the frame on screen and the next one, decoded into each other's memory, instead
+     * of caching frames. Memory stays at two frames whatever the frame count, at the cost of
+     * decoding every frame each time, such as for long one-shot splash animations.
+     *
+     * @param streaming true for streaming playback
+     * @return
+     */
+    public AnimationBuilder streaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    /**
+     * set what to do when frames are decoded slower than they are due
+     *
+     * @param policy late frame policy, {@link LateFramePolicy#HOLD} by default, ignored once
+     *               {@link #maxDroppedFrames(int)} is set
+     * @return
+     */
+    public AnimationBuilder lateFramePolicy(@NonNull LateFramePolicy policy) {
+        this.latePolicy = policy;
+        return this;
+    }
+
+    /**
+     * skip late frames, but drop no more than {@code count} frames in a row; this sets the late
+     * frame policy to {@link LateFramePolicy#SKIP_WITH_MAX_DROP}, whether
+     * {@link #lateFramePolicy(LateFramePolicy)} is called before or after
+     *
+     * @param count frames dropped in a row at most, 2 if the policy is set alone
+     * @return
+     * @see LateFramePolicy#SKIP_WITH_MAX_DROP
+     */
+    public AnimationBuilder maxDroppedFrames(@IntRange(from = 0) int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0");
+        }
+        this.maxDroppedFrames = count;
+        return this;
+    }
+
+    /**
+     * @param listener notified of every frame dropped
+     * @return
+     */
+    public AnimationBuilder onFrameDrop(@NonNull LazyAnimationDrawable.OnFrameDropListener
+                                            listener) {
+        this.dropListener = listener;
+        return this;
+    }
+
     /**
      * set animation type, oneshot or loop
      *
@@ -108,13 +399,42 @@ public class AnimationBuilder {
      */
     public LazyAnimationDrawable into(@NonNull View view) {
         if (cacheSize <= 0) {
-            cacheSize = (int) (frames.length * percent);
+            int count = source != null ? source.getFrameCount() : frames.length;
+            cacheSize = (int) (count * percent);
         }
 
         LazyAnimationDrawable animation = new LazyAnimationDrawable();
-        animation.setCacheSize(cacheSize);
-        animation.setFrames(frames, duration);
+        if (cacheBytes > 0) {
+            animation.setCacheBytes(cacheBytes);
+        } else {
+            animation.setCacheSize(cacheSize);
+        }
+        FrameSource frameSource = source != null ? source : new ResourceFrameSource(view
+            .getResources(), frames);
+        if (encodedCache != null) {
+            frameSource = encodedCache.wrap(frameSource);
+        }
+        if (diskCache != null) {
+            // checked first, a frame on disk needs no decoding at all
+            frameSource = diskCache.wrap(frameSource);
+        }
+        if (durations != null) {
+            animation.setFrames(frameSource, durations);
+        } else {
+            animation.setFrames(frameSource, duration);
+        }
         animation.oneShot(oneShot);
+        animation.setDecodeScheduler(scheduler);
+        animation.setPrefetch(prefetch);
+        animation.setTargetSize(targetWidth, targetHeight);
+        animation.setBitmapConfig(config);
+        animation.setStreaming(streaming);
+        if (maxDroppedFrames >= 0) {
+            animation.setLateFramePolicy(LateFramePolicy.SKIP_WITH_MAX_DROP, maxDroppedFrames);
+        } else {
+            animation.setLateFramePolicy(latePolicy, 2);
+        }
+        animation.setOnFrameDropListener(dropListener);
         animation.attachTo(view);
         return animation;
     }
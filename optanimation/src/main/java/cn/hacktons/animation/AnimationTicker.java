@@ -0,0 +1,131 @@
+package cn.hacktons.animation;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * Ticks the {@link FrameClock} of every running animation from a single {@link Choreographer}
+ * callback, so a list with many animated rows posts one callback per vsync instead of one per
+ * animation. Frames requested while ticking are submitted to their {@link DecodeScheduler} in one
+ * batch once all animations are ticked.
+ */
+@MainThread
+final class AnimationTicker implements Choreographer.FrameCallback {
+    private static final long NANOS_PER_MILLI = 1000000;
+    private static AnimationTicker sInstance;
+
+    /**
+     * clocks to tick on a coming vsync
+     */
+    private ArrayList<FrameClock> mClocks = new ArrayList<>();
+    private ArrayList<FrameClock> mTicking = new ArrayList<>();
+    private final ArrayList<DecodeScheduler> mBatches = new ArrayList<>();
+    /**
+     * incremented on each tick, clocks posted during a tick are left for the next one
+     */
+    private int mGeneration;
+    private boolean mInTick;
+    private boolean mCallbackPosted;
+    private long mCallbackWakeNanos;
+
+    static AnimationTicker getInstance() {
+        if (sInstance == null) {
+            sInstance = new AnimationTicker();
+        }
+        return sInstance;
+    }
+
+    /**
+     * tick {@code clock} on the first vsync after {@code wakeNanos}
+     */
+    void post(@NonNull FrameClock clock, long wakeNanos) {
+        clock.mWakeNanos = wakeNanos;
+        clock.mGeneration = mGeneration;
+        mClocks.add(clock);
+        if (!mInTick) {
+            schedule(wakeNanos);
+        }
+    }
+
+    void remove(@NonNull FrameClock clock) {
+        mClocks.remove(clock);
+        if (mClocks.isEmpty() && mCallbackPosted && !mInTick) {
+            mCallbackPosted = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    /**
+     * @return true while clocks are ticked, decode requests are then batched
+     */
+    boolean isTicking() {
+        return mInTick;
+    }
+
+    /**
+     * submit the batched requests of {@code scheduler} once all clocks are ticked
+     */
+    void addBatch(@NonNull DecodeScheduler scheduler) {
+        mBatches.add(scheduler);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mCallbackPosted = false;
+        ArrayList<FrameClock> clocks = mClocks;
+        mClocks = mTicking;
+        mTicking = clocks;
+        int generation = mGeneration++;
+        mInTick = true;
+        try {
+            for (int i = 0; i < clocks.size(); i++) {
+                FrameClock clock = clocks.get(i);
+                if (!clock.mPosted || clock.mGeneration != generation) {
+                    // stopped, or stopped and posted again by an earlier clock
+                    continue;
+                }
+                if (clock.mWakeNanos > frameTimeNanos) {
+                    clock.mGeneration = mGeneration;
+                    mClocks.add(clock);
+                    continue;
+                }
+                clock.doFrame(frameTimeNanos);
+            }
+        } finally {
+            clocks.clear();
+            mInTick = false;
+            for (int i = 0; i < mBatches.size(); i++) {
+                mBatches.get(i).flushBatch();
+            }
+            mBatches.clear();
+        }
+        if (!mClocks.isEmpty()) {
+            long wakeNanos = Long.MAX_VALUE;
+            for (int i = 0; i < mClocks.size(); i++) {
+                wakeNanos = Math.min(wakeNanos, mClocks.get(i).mWakeNanos);
+            }
+            schedule(wakeNanos);
+        }
+    }
+
+    private void schedule(long wakeNanos) {
+        Choreographer choreographer = Choreographer.getInstance();
+        if (mCallbackPosted) {
+            if (wakeNanos >= mCallbackWakeNanos) {
+                return;
+            }
+            choreographer.removeFrameCallback(this);
+        }
+        mCallbackPosted = true;
+        mCallbackWakeNanos = wakeNanos;
+        long delayMillis = (wakeNanos - System.nanoTime()) / NANOS_PER_MILLI;
+        if (delayMillis > 0) {
+            choreographer.postFrameCallbackDelayed(this, delayMillis);
+        } else {
+            choreographer.postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package cn.hacktons.animation;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Frames of images in assets, one asset per frame. Frames are keyed by asset path, so animations
+ * of the same assets share cached frames.
+ * <p>
+ * Uncompressed assets (png and jpg are stored so by default) are read through an
+ * {@link AssetFileDescriptor} straight from the apk, compressed ones are inflated as a stream.
+ */
+public final class AssetFrameSource implements PersistentFrameSource, EncodedFrameSource {
+    private final AssetManager mAssets;
+    private final String[] mPaths;
+    private final int[] mKeys;
+
+    /**
+     * @param assets asset manager of the app
+     * @param paths  asset path of each frame
+     */
+    public AssetFrameSource(@NonNull AssetManager assets, @NonNull String[] paths) {
+        mAssets = assets;
+        mPaths = paths.clone();
+        mKeys = new int[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            mKeys[i] = FrameKeys.intern("asset:" + paths[i]);
+        }
+    }
+
+    @Override
+    public int getFrameCount() {
+        return mPaths.length;
+    }
+
+    @Override
+    public int getFrameKey(int index) {
+        return mKeys[index];
+    }
+
+    @Override
+    public void decodeBounds(int index, @NonNull BitmapFactory.Options options) throws
+        IOException {
+        options.inJustDecodeBounds = true;
+        try {
+            decode(index, options);
+        } finally {
+            options.inJustDecodeBounds = false;
+        }
+    }
+
+    @Override
+    public Bitmap decode(int index, @NonNull BitmapFactory.Options options) throws IOException {
+        InputStream in = open(mPaths[index]);
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    private InputStream open(String path) throws IOException {
+        AssetFileDescriptor fd;
+        try {
+            fd = mAssets.openFd(path);
+        } catch (FileNotFoundException e) {
+            // compressed in the apk
+            return mAssets.open(path, AssetManager.ACCESS_STREAMING);
+        }
+        // closes the descriptor when closed
+        return fd.createInputStream();
+    }
+
+    @Override
+    public String getFrameName(int index) {
+        return "asset:" + mPaths[index];
+    }
+
+    @Override
+    public byte[] readFrameBytes(int index) throws IOException {
+        return DeltaFrameSource.readFully(open(mPaths[index]));
+    }
+
+    @Override
+    public Bitmap decodeFrameBytes(int index, @NonNull byte[] bytes, @NonNull BitmapFactory
+        .Options options) {
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,192 @@
+package cn.hacktons.animation;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.RawRes;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Frames packed into a single image (sprite sheet / texture atlas), decoded region by region with
+ * {@link BitmapRegionDecoder}. The whole animation is one resource, so there is a single lookup
+ * and decoder setup instead of one per frame.
+ * <p>
+ * The region decoder is kept open between frames until {@link #close()}, which doesn't wait for
+ * the frame being decoded: the decoder is then recycled once it's done. There is a single region
+ * decoder, which decodes one region at a time, so frames of an atlas are decoded one after another
+ * even with several decode threads.
+ * <p>
+ * Frame rects are in pixels of the packed image, which is read as a raw resource without density
+ * scaling, put it in {@code res/raw} or {@code res/drawable-nodpi}.
+ */
+public final class AtlasFrameSource implements PersistentFrameSource {
+    private final Resources mResources;
+    private final int mResId;
+    private final Rect[] mFrames;
+    private final int mFirstKey;
+    private final Object mLock = new Object();
+    /**
+     * guarded by {@link #mLock}, as are the two below
+     */
+    private BitmapRegionDecoder mDecoder;
+    /**
+     * number of frames being decoded with {@link #mDecoder}
+     */
+    private int mDecoding;
+    /**
+     * closed while decoding, the decoder is recycled by the last decode
+     */
+    private boolean mClosed;
+    private String mMimeType;
+
+    /**
+     * @param resources resources of the packed image
+     * @param resId     the packed image, jpeg or png
+     * @param frames    region of each frame in the packed image
+     */
+    public AtlasFrameSource(@NonNull Resources resources, @RawRes int resId, @NonNull Rect[]
+        frames) {
+        mResources = resources;
+        mResId = resId;
+        mFrames = new Rect[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            mFrames[i] = new Rect(frames[i]);
+        }
+        mFirstKey = FrameKeys.allocate(frames.length);
+    }
+
+    /**
+     * Frames of the same size laid out in rows, left to right and top to bottom
+     *
+     * @param columns number of frames in a row
+     * @param count   number of frames
+     */
+    public static AtlasFrameSource grid(@NonNull Resources resources, @RawRes int resId,
+                                        @IntRange(from = 1) int frameWidth,
+                                        @IntRange(from = 1) int frameHeight,
+                                        @IntRange(from = 1) int columns,
+                                        @IntRange(from = 1) int count) {
+        Rect[] frames = new Rect[count];
+        for (int i = 0; i < count; i++) {
+            int left = (i % columns) * frameWidth;
+            int top = (i / columns) * frameHeight;
+            frames[i] = new Rect(left, top, left + frameWidth, top + frameHeight);
+        }
+        return new AtlasFrameSource(resources, resId, frames);
+    }
+
+    @Override
+    public int getFrameCount() {
+        return mFrames.length;
+    }
+
+    @Override
+    public int getFrameKey(int index) {
+        return mFirstKey + index;
+    }
+
+    @Override
+    public synchronized void decodeBounds(int index, @NonNull BitmapFactory.Options options)
+        throws IOException {
+        if (mMimeType == null) {
+            InputStream in = mResources.openRawResource(mResId);
+            try {
+                BitmapFactory.Options bounds = new BitmapFactory.Options();
+                bounds.inJustDecodeBounds = true;
+                BitmapFactory.decodeStream(in, null, bounds);
+                mMimeType = bounds.outMimeType;
+            } finally {
+                in.close();
+            }
+        }
+        Rect frame = mFrames[index];
+        options.outWidth = frame.width();
+        options.outHeight = frame.height();
+        options.outMimeType = mMimeType;
+    }
+
+    @Override
+    public Bitmap decode(int index, @NonNull BitmapFactory.Options options) throws IOException {
+        BitmapRegionDecoder decoder = acquireDecoder();
+        try {
+            return decoder.decodeRegion(mFrames[index], options);
+        } finally {
+            releaseDecoder(decoder);
+        }
+    }
+
+    private BitmapRegionDecoder acquireDecoder() throws IOException {
+        synchronized (mLock) {
+            if (mDecoder != null) {
+                mClosed = false;
+                mDecoding++;
+                return mDecoder;
+            }
+        }
+        BitmapRegionDecoder opened;
+        InputStream in = mResources.openRawResource(mResId);
+        try {
+            opened = BitmapRegionDecoder.newInstance(in, false);
+        } finally {
+            in.close();
+        }
+        BitmapRegionDecoder decoder;
+        synchronized (mLock) {
+            if (mDecoder == null) {
+                mDecoder = opened;
+                opened = null;
+            }
+            mClosed = false;
+            mDecoding++;
+            decoder = mDecoder;
+        }
+        if (opened != null) {
+            // opened by another thread meanwhile
+            opened.recycle();
+        }
+        return decoder;
+    }
+
+    private void releaseDecoder(BitmapRegionDecoder decoder) {
+        synchronized (mLock) {
+            if (--mDecoding > 0 || !mClosed) {
+                return;
+            }
+            mClosed = false;
+            mDecoder = null;
+        }
+        decoder.recycle();
+    }
+
+    @Override
+    public String getFrameName(int index) {
+        Rect frame = mFrames[index];
+        return "atlas:" + mResId + ":" + frame.left + "," + frame.top + "," + frame.right + ","
+            + frame.bottom;
+    }
+
+    /**
+     * Recycle the region decoder, or let the frame being decoded recycle it when done
+     */
+    @Override
+    public void close() {
+        BitmapRegionDecoder idle;
+        synchronized (mLock) {
+            if (mDecoding > 0) {
+                mClosed = true;
+                return;
+            }
+            idle = mDecoder;
+            mDecoder = null;
+        }
+        if (idle != null) {
+            idle.recycle();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * Pool of mutable bitmaps whose memory can be reused by {@code BitmapFactory.Options#inBitmap}.
+ * The pool is fed by frames evicted from the frame caches and drained by frame decoding, so a
+ * looping animation whose cache is full decodes into recycled memory instead of allocating.
+ * <p>
+ * Since KitKat any bitmap whose allocation is large enough can be reused, so the pool is kept
+ * sorted by allocation size and hands out the smallest one that fits. Before KitKat the reused
+ * bitmap must have exactly the same width, height and config.
+ * <p>
+ * A frame decoded once for several animations is cached by each of them, such bitmaps are
+ * marked shared and never pooled, one animation evicting it doesn't mean the others stopped
+ * drawing it.
+ */
+public final class BitmapPool {
+    /**
+     * pooled bitmaps ordered by allocation byte count
+     */
+    private final ArrayList<Bitmap> mBitmaps = new ArrayList<>();
+    private final WeakHashMap<Bitmap, Boolean> mShared = new WeakHashMap<>();
+    private long mMaxBytes;
+    private long mBytes;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mRejectCount;
+
+    BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param maxBytes max bytes of bitmaps waiting to be reused
+     */
+    public synchronized void setMaxBytes(@IntRange(from = 0) long maxBytes) {
+        mMaxBytes = maxBytes;
+        while (mBytes > mMaxBytes && !mBitmaps.isEmpty()) {
+            // drop the largest first, they are the least likely to fit other animations
+            Bitmap bitmap = mBitmaps.remove(mBitmaps.size() - 1);
+            mBytes -= BitmapUtil.getAllocationByteCount(bitmap);
+        }
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Offer a bitmap which is no longer cached nor drawn
+     *
+     * @return false if the bitmap can't be reused or the pool is full
+     */
+    synchronized boolean put(@NonNull Bitmap bitmap) {
+        int bytes = BitmapUtil.getAllocationByteCount(bitmap);
+        if (!bitmap.isMutable() || bitmap.isRecycled() || mShared.containsKey(bitmap)
+            || mBytes + bytes > mMaxBytes) {
+            mRejectCount++;
+            return false;
+        }
+        int index = indexOfBytes(bytes);
+        mBitmaps.add(index, bitmap);
+        mBytes += bytes;
+        mPutCount++;
+        return true;
+    }
+
+    /**
+     * keep a bitmap cached by more than one animation out of the pool
+     */
+    synchronized void markShared(@NonNull Bitmap bitmap) {
+        mShared.put(bitmap, Boolean.TRUE);
+    }
+
+    /**
+     * Take a bitmap which can be used as {@code inBitmap} to decode an image of the given size
+     *
+     * @return null if no pooled bitmap fits
+     */
+    @Nullable
+    synchronized Bitmap get(int width, int height, @Nullable Bitmap.Config config) {
+        if (config == null) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+        int index = -1;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            int needed = width * height * BitmapUtil.getBytesPerPixel(config);
+            int candidate = indexOfBytes(needed);
+            if (candidate < mBitmaps.size()) {
+                index = candidate;
+            }
+        } else {
+            for (int i = 0; i < mBitmaps.size(); i++) {
+                Bitmap bitmap = mBitmaps.get(i);
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                    && bitmap.getConfig() == config) {
+                    index = i;
+                    break;
+                }
+            }
+        }
+        if (index < 0) {
+            mMissCount++;
+            return null;
+        }
+        Bitmap bitmap = mBitmaps.remove(index);
+        mBytes -= BitmapUtil.getAllocationByteCount(bitmap);
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * release all pooled bitmaps
+     */
+    public synchronized void clear() {
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * @return bytes of pooled bitmaps
+     */
+    public synchronized long size() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a reusable bitmap.
+     */
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of times {@link #get} found nothing, so a new bitmap was allocated.
+     */
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the number of bitmaps accepted by the pool.
+     */
+    public synchronized int putCount() {
+        return mPutCount;
+    }
+
+    /**
+     * Returns the number of bitmaps refused because they are immutable, shared or the pool was
+     * full.
+     */
+    public synchronized int rejectCount() {
+        return mRejectCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int lookups = mHitCount + mMissCount;
+        int hitPercent = lookups != 0 ? (100 * mHitCount / lookups) : 0;
+        return String.format("BitmapPool[bytes=%d,maxBytes=%d,hits=%d,misses=%d,hitRate=%d%%]",
+            mBytes, mMaxBytes, mHitCount, mMissCount, hitPercent);
+    }
+
+    /**
+     * @return index of the first bitmap whose allocation is at least {@code bytes}
+     */
+    private int indexOfBytes(int bytes) {
+        int low = 0;
+        int high = mBitmaps.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BitmapUtil.getAllocationByteCount(mBitmaps.get(mid)) < bytes) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
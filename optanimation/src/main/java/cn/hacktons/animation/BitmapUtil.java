@@ -0,0 +1,66 @@
+package cn.hacktons.animation;
+
+import android.annotation.SuppressLint;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Bitmap helpers shared by the frame cache and decoder
+ */
+final class BitmapUtil {
+
+    private BitmapUtil() {
+    }
+
+    /**
+     * Returns the size of the memory used to store the bitmap's pixels, which may be larger than
+     * the pixel data itself when a bitmap has been reused with {@code inBitmap}
+     */
+    @SuppressLint("NewApi")
+    static int getAllocationByteCount(@NonNull Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    /**
+     * Bitmap to copy raw pixels into: {@code inBitmap} if it can hold them, reconfigured when
+     * needed, or a new bitmap if there's no {@code inBitmap}
+     *
+     * @throws IllegalArgumentException if {@code inBitmap} can't hold the pixels
+     */
+    @SuppressLint("NewApi")
+    static Bitmap obtainBitmap(@Nullable Bitmap inBitmap, int width, int height,
+                               @NonNull Bitmap.Config config) {
+        if (inBitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        if (inBitmap.getWidth() != width || inBitmap.getHeight() != height
+            || inBitmap.getConfig() != config) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT || getAllocationByteCount
+                (inBitmap) < width * height * getBytesPerPixel(config)) {
+                throw new IllegalArgumentException("pixels don't fit inBitmap");
+            }
+            inBitmap.reconfigure(width, height, config);
+        }
+        return inBitmap;
+    }
+
+    /**
+     * @return bytes used by one pixel of {@code config}
+     */
+    static int getBytesPerPixel(@NonNull Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
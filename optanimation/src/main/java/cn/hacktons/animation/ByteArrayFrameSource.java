@@ -0,0 +1,51 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+
+/**
+ * Frames of encoded images held in memory, one byte array per frame. The arrays are not copied,
+ * don't modify them while the animation is alive.
+ * <p>
+ * Byte arrays have no identity to share frames by, each source gets keys of its own.
+ */
+public final class ByteArrayFrameSource implements FrameSource {
+    private final byte[][] mFrames;
+    private final int mFirstKey;
+
+    /**
+     * @param frames encoded png or jpg of each frame
+     */
+    public ByteArrayFrameSource(@NonNull byte[][] frames) {
+        mFrames = frames.clone();
+        mFirstKey = FrameKeys.allocate(frames.length);
+    }
+
+    @Override
+    public int getFrameCount() {
+        return mFrames.length;
+    }
+
+    @Override
+    public int getFrameKey(int index) {
+        return mFirstKey + index;
+    }
+
+    @Override
+    public void decodeBounds(int index, @NonNull BitmapFactory.Options options) {
+        options.inJustDecodeBounds = true;
+        decode(index, options);
+        options.inJustDecodeBounds = false;
+    }
+
+    @Override
+    public Bitmap decode(int index, @NonNull BitmapFactory.Options options) {
+        byte[] frame = mFrames[index];
+        return BitmapFactory.decodeByteArray(frame, 0, frame.length, options);
+    }
+
+    @Override
+    public void close() {
+    }
+}
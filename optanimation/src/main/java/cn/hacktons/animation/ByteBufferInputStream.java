@@ -0,0 +1,67 @@
+package cn.hacktons.animation;
+
+import android.support.annotation.NonNull;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a byte buffer, such as a region of a memory mapped file, without copying it first
+ */
+final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer mBuffer;
+    private int mMark;
+
+    /**
+     * @param buffer bytes from position to limit are read, the buffer is not shared
+     */
+    ByteBufferInputStream(@NonNull ByteBuffer buffer) {
+        mBuffer = buffer;
+        mMark = buffer.position();
+    }
+
+    @Override
+    public int read() {
+        return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(@NonNull byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(length, mBuffer.remaining());
+        mBuffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+        mBuffer.position(mBuffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return mBuffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mMark = mBuffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+        mBuffer.position(mMark);
+    }
+}
@@ -0,0 +1,145 @@
+package cn.hacktons.animation;
+
+import android.support.annotation.IntRange;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Process-wide memory budget of frame caches. Each {@link LazyAnimationDrawable} owns its own
+ * cache partition, the registry grants the running ones a share of the global budget:
+ * <ul>
+ *     <li>partitions asking for less than a fair share get what they ask for</li>
+ *     <li>the rest is split evenly among the other partitions (max-min fairness)</li>
+ * </ul>
+ * Shares are rebalanced whenever an animation starts, stops or changes its cache size.
+ * <pre>
+ *     {@code // hand all animations of this screen 16MB
+ *     CacheRegistry.getInstance().setMaxBytes(16 * 1024 * 1024);
+ * }
+ * </pre>
+ */
+public final class CacheRegistry {
+    private static final CacheRegistry INSTANCE = new CacheRegistry();
+
+    private static final Comparator<FramePartition> BY_REQUEST = new Comparator<FramePartition>() {
+        @Override
+        public int compare(FramePartition lhs, FramePartition rhs) {
+            long l = lhs.requestedBytes();
+            long r = rhs.requestedBytes();
+            return l < r ? -1 : (l == r ? 0 : 1);
+        }
+    };
+
+    private final ArrayList<FramePartition> mActive = new ArrayList<>();
+    private final ResurrectionCache mResurrectionCache = new ResurrectionCache();
+    private final BitmapPool mBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+    private long mMaxBytes = Runtime.getRuntime().maxMemory() / 4;
+
+    private CacheRegistry() {
+    }
+
+    public static CacheRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * set the budget shared by all running animations, a quarter of the max heap by default
+     *
+     * @param maxBytes max bytes of all cached frames
+     */
+    public synchronized void setMaxBytes(@IntRange(from = 1) long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        mMaxBytes = maxBytes;
+        rebalance();
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * @return the tier keeping evicted frames until they are reclaimed by gc
+     */
+    public ResurrectionCache getResurrectionCache() {
+        return mResurrectionCache;
+    }
+
+    /**
+     * @return the pool recycling evicted frames for decoding
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * @return bytes of frames cached by running animations
+     */
+    public synchronized long totalBytes() {
+        long total = 0;
+        for (FramePartition partition : mActive) {
+            total += partition.size();
+        }
+        return total;
+    }
+
+    /**
+     * @return number of running animations sharing the budget
+     */
+    public synchronized int activeCount() {
+        return mActive.size();
+    }
+
+    synchronized void activate(FramePartition partition) {
+        if (!mActive.contains(partition)) {
+            mActive.add(partition);
+            rebalance();
+        }
+    }
+
+    synchronized void deactivate(FramePartition partition) {
+        if (mActive.remove(partition)) {
+            rebalance();
+        }
+    }
+
+    /**
+     * called when the size asked by a partition changes
+     */
+    synchronized void update(FramePartition partition) {
+        if (mActive.contains(partition)) {
+            rebalance();
+        } else {
+            partition.resize(toMaxSize(Math.min(partition.requestedBytes(), mMaxBytes)));
+        }
+    }
+
+    /**
+     * drop the frames of all running animations, used when memory is running out
+     */
+    synchronized void evictAll() {
+        for (FramePartition partition : mActive) {
+            partition.evictAll();
+        }
+        mBitmapPool.clear();
+    }
+
+    private void rebalance() {
+        FramePartition[] partitions = mActive.toArray(new FramePartition[mActive.size()]);
+        Arrays.sort(partitions, BY_REQUEST);
+        long remaining = mMaxBytes;
+        for (int i = 0; i < partitions.length; i++) {
+            long share = remaining / (partitions.length - i);
+            long granted = Math.min(partitions[i].requestedBytes(), share);
+            remaining -= granted;
+            partitions[i].resize(toMaxSize(granted));
+        }
+    }
+
+    private static int toMaxSize(long bytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes));
+    }
+}
@@ -0,0 +1,166 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Frames of a container made by the {@code packer} tool: a header, an index of frame offsets,
+ * sizes and durations, then the frame payloads. The file is memory mapped once, frames are
+ * decoded straight from the mapped region, there is no lookup nor copy per frame.
+ * <p>
+ * Encoded payloads (png/jpg) are streamed from the mapping into the decoder. Raw payloads are
+ * premultiplied ARGB_8888 pixels copied into the bitmap as is, they are never downsampled.
+ * <p>
+ * Frames are keyed by path, length and modification time of the container.
+ */
+public final class ContainerFrameSource implements PersistentFrameSource {
+    private static final int MAGIC = 0x4641434E;
+    private static final int VERSION = 1;
+    private static final int FORMAT_ENCODED = 0;
+    private static final int FORMAT_RAW_ARGB_8888 = 1;
+
+    private final MappedByteBuffer mMap;
+    private final int[] mOffsets;
+    private final int[] mLengths;
+    private final int[] mWidths;
+    private final int[] mHeights;
+    private final int[] mDurations;
+    private final int[] mFormats;
+    private final String mName;
+    private final int mFirstKey;
+
+    /**
+     * @param file the container
+     * @throws IOException if it can't be mapped or it's not a container
+     */
+    public ContainerFrameSource(@NonNull File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after the file is closed
+            mMap = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } finally {
+            in.close();
+        }
+        try {
+            if (mMap.getInt() != MAGIC) {
+                throw new IOException(file + " is not a frame container");
+            }
+            int version = mMap.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported container version " + version);
+            }
+            int count = mMap.getInt();
+            // flags, reserved
+            mMap.getInt();
+            mOffsets = new int[count];
+            mLengths = new int[count];
+            mWidths = new int[count];
+            mHeights = new int[count];
+            mDurations = new int[count];
+            mFormats = new int[count];
+            for (int i = 0; i < count; i++) {
+                long offset = mMap.getLong();
+                mLengths[i] = mMap.getInt();
+                mWidths[i] = mMap.getInt();
+                mHeights[i] = mMap.getInt();
+                mDurations[i] = mMap.getInt();
+                mFormats[i] = mMap.getInt();
+                if (offset < 0 || offset + mLengths[i] > mMap.capacity() || mLengths[i] < 0) {
+                    throw new IOException("frame " + i + " is out of the container");
+                }
+                mOffsets[i] = (int) offset;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated container " + file, e);
+        }
+        mName = "container:" + file.getAbsolutePath() + ":" + file.length() + ":" + file
+            .lastModified();
+        mFirstKey = FrameKeys.intern(mName, mOffsets.length);
+    }
+
+    @Override
+    public int getFrameCount() {
+        return mOffsets.length;
+    }
+
+    @Override
+    public int getFrameKey(int index) {
+        return mFirstKey + index;
+    }
+
+    /**
+     * @return milliseconds the frame is shown, as packed
+     */
+    public int getFrameDuration(int index) {
+        return mDurations[index];
+    }
+
+    @Override
+    public void decodeBounds(int index, @NonNull BitmapFactory.Options options) {
+        options.outWidth = mWidths[index];
+        options.outHeight = mHeights[index];
+        options.outMimeType = null;
+        if (mFormats[index] == FORMAT_ENCODED && mLengths[index] >= 2) {
+            // jpeg starts with SOI, 0xFFD8
+            int offset = mOffsets[index];
+            boolean jpeg = (mMap.get(offset) & 0xff) == 0xff && (mMap.get(offset + 1) & 0xff)
+                == 0xd8;
+            options.outMimeType = jpeg ? "image/jpeg" : "image/png";
+        }
+    }
+
+    @Override
+    public Bitmap decode(int index, @NonNull BitmapFactory.Options options) throws IOException {
+        if (mFormats[index] == FORMAT_RAW_ARGB_8888) {
+            return copyPixels(index, options);
+        }
+        if (mFormats[index] != FORMAT_ENCODED) {
+            throw new IOException("unknown format of frame " + index);
+        }
+        return BitmapFactory.decodeStream(new ByteBufferInputStream(payload(index)), null,
+            options);
+    }
+
+    /**
+     * Fill {@code inBitmap}, or a new bitmap, with the raw pixels of a frame
+     *
+     * @throws IllegalArgumentException if {@code inBitmap} can't hold the frame
+     */
+    private Bitmap copyPixels(int index, BitmapFactory.Options options) {
+        Bitmap bitmap = BitmapUtil.obtainBitmap(options.inBitmap, mWidths[index], mHeights[index],
+            Bitmap.Config.ARGB_8888);
+        bitmap.copyPixelsFromBuffer(payload(index));
+        return bitmap;
+    }
+
+    /**
+     * @return the payload of a frame, not shared with other threads
+     */
+    private ByteBuffer payload(int index) {
+        ByteBuffer payload = mMap.duplicate();
+        payload.position(mOffsets[index]);
+        payload.limit(mOffsets[index] + mLengths[index]);
+        return payload;
+    }
+
+    @Nullable
+    @Override
+    public String getFrameName(int index) {
+        // raw frames are read as fast as from the disk cache
+        return mFormats[index] == FORMAT_ENCODED ? mName + ":" + index : null;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,103 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+/**
+ * A reusable unit of work of {@link DecodeScheduler}, decoded on a worker thread and delivered on
+ * the main thread. Requests are linked into the scheduler's queue, so submitting one doesn't
+ * allocate.
+ * <p>
+ * Requests with the same {@link #decodeKey()} decode into interchangeable bitmaps, so while one
+ * of them is queued or decoding the others follow it instead of decoding again.
+ */
+abstract class DecodeRequest implements Runnable {
+    /**
+     * next request in the scheduler queue
+     */
+    DecodeRequest mNext;
+    /**
+     * prefetch requests are queued behind the frames which are about to be shown
+     */
+    boolean mPrefetch;
+    /**
+     * true while the request waits in the prefetch queue of the scheduler
+     */
+    boolean mQueuedForPrefetch;
+    /**
+     * requests waiting for the result of this one, linked by {@link #mNextFollower}
+     */
+    DecodeRequest mFollowers;
+    DecodeRequest mNextFollower;
+    /**
+     * set by {@link #decode()} if a frame was decoded but is no longer wanted
+     */
+    boolean mWasted;
+    private Bitmap mResult;
+
+    /**
+     * @return true if the request has been superseded and should be dropped before decoding
+     */
+    @WorkerThread
+    abstract boolean isStale();
+
+    /**
+     * @return key of the decoded bitmap, requests of the same key are decoded once
+     */
+    abstract long decodeKey();
+
+    @WorkerThread
+    @Nullable
+    abstract Bitmap decode();
+
+    /**
+     * Make a bitmap returned by {@link #decode()} available, such as by caching it. Called once
+     * no other request can follow this one, so the followers are known.
+     *
+     * @param shared true if followers will {@link #adopt} the bitmap too
+     * @return the bitmap to deliver
+     */
+    @WorkerThread
+    @Nullable
+    Bitmap publish(@NonNull Bitmap decoded, boolean shared) {
+        return decoded;
+    }
+
+    /**
+     * Take the result decoded by another request of the same key
+     *
+     * @param result bitmap decoded by the leading request, may be cached by another animation
+     * @return the bitmap to deliver
+     */
+    @WorkerThread
+    @Nullable
+    abstract Bitmap adopt(@NonNull Bitmap result);
+
+    @MainThread
+    abstract void deliver(@Nullable Bitmap result);
+
+    /**
+     * called after delivery, the request may be reused from now on
+     */
+    @MainThread
+    abstract void recycle();
+
+    void setResult(Bitmap result) {
+        mResult = result;
+    }
+
+    /**
+     * deliver the result on main thread
+     */
+    @Override
+    public final void run() {
+        Bitmap result = mResult;
+        mResult = null;
+        mWasted = false;
+        deliver(result);
+        recycle();
+    }
+}
@@ -0,0 +1,425 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes animation frames off the main thread. Unlike {@link android.os.AsyncTask} frames are
+ * not queued behind unrelated work of the app:
+ * <ul>
+ *     <li>pending requests are kept in the scheduler's own queue, frames to be shown are queued
+ *     ahead of prefetched frames</li>
+ *     <li>at most {@code parallelism} workers drain the queue on the executor</li>
+ *     <li>requests are reused by the drawables, submitting doesn't allocate a task</li>
+ *     <li>requests superseded by stop, skip or invisibility are dropped before decoding</li>
+ *     <li>a frame requested again while it's queued or decoding is decoded only once</li>
+ *     <li>frames requested by animations ticked on the same vsync are queued at once</li>
+ * </ul>
+ * By default all animations share a scheduler with its own background threads, use
+ * {@link AnimationBuilder#decodeScheduler(DecodeScheduler)} or
+ * {@link AnimationBuilder#executor(Executor)} to decode on other threads.
+ */
+public final class DecodeScheduler {
+    private static final String TAG = "DecodeScheduler";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static DecodeScheduler sDefault;
+
+    private final Executor mExecutor;
+    private final int mParallelism;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private DecodeRequest mUrgentHead;
+    private DecodeRequest mUrgentTail;
+    private DecodeRequest mPrefetchHead;
+    private DecodeRequest mPrefetchTail;
+    /**
+     * leading requests which are queued or decoding, by decode key
+     */
+    private final LongSparseArray<DecodeRequest> mInFlight = new LongSparseArray<>();
+    private int mWorkers;
+    /**
+     * requests submitted while {@link AnimationTicker} ticks, main thread only
+     */
+    private DecodeRequest mBatchHead;
+    private DecodeRequest mBatchTail;
+
+    private int mDroppedCount;
+    private int mWastedCount;
+    private int mCoalescedCount;
+
+    /**
+     * @param threads  number of decode threads
+     * @param priority linux thread priority of decode threads, such as
+     *                 {@link Process#THREAD_PRIORITY_BACKGROUND}
+     */
+    public DecodeScheduler(@IntRange(from = 1) int threads, int priority) {
+        this(newExecutor(threads, priority), threads);
+    }
+
+    /**
+     * @param executor    executor to run decoding on
+     * @param parallelism max number of frames decoded at the same time
+     */
+    public DecodeScheduler(@NonNull Executor executor, @IntRange(from = 1) int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism <= 0");
+        }
+        mExecutor = executor;
+        mParallelism = parallelism;
+    }
+
+    /**
+     * @return the scheduler shared by animations without their own
+     */
+    public static synchronized DecodeScheduler getDefault() {
+        if (sDefault == null) {
+            int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+            sDefault = new DecodeScheduler(threads, Process.THREAD_PRIORITY_BACKGROUND
+                + Process.THREAD_PRIORITY_MORE_FAVORABLE);
+        }
+        return sDefault;
+    }
+
+    /**
+     * replace the scheduler shared by animations without their own
+     */
+    public static synchronized void setDefault(@NonNull DecodeScheduler scheduler) {
+        sDefault = scheduler;
+    }
+
+    void submit(@NonNull DecodeRequest request) {
+        if (Looper.myLooper() == mMainHandler.getLooper()) {
+            AnimationTicker ticker = AnimationTicker.getInstance();
+            if (ticker.isTicking()) {
+                if (mBatchTail != null) {
+                    mBatchTail.mNext = request;
+                } else {
+                    mBatchHead = request;
+                    ticker.addBatch(this);
+                }
+                request.mNext = null;
+                mBatchTail = request;
+                return;
+            }
+        }
+        boolean spawn;
+        synchronized (this) {
+            if (!enqueue(request)) {
+                return;
+            }
+            spawn = mWorkers < mParallelism;
+            if (spawn) {
+                mWorkers++;
+            }
+        }
+        if (spawn) {
+            startWorker();
+        }
+    }
+
+    /**
+     * Queue the requests submitted while ticking under one lock, and start as many workers as
+     * they need
+     */
+    void flushBatch() {
+        DecodeRequest request = mBatchHead;
+        mBatchHead = mBatchTail = null;
+        int spawn = 0;
+        synchronized (this) {
+            while (request != null) {
+                DecodeRequest next = request.mNext;
+                if (enqueue(request) && mWorkers < mParallelism) {
+                    mWorkers++;
+                    spawn++;
+                }
+                request = next;
+            }
+        }
+        for (int i = 0; i < spawn; i++) {
+            startWorker();
+        }
+    }
+
+    /**
+     * Run a worker counted in {@link #mWorkers}, requests stay queued for the next worker if the
+     * executor rejects it
+     */
+    private void startWorker() {
+        try {
+            mExecutor.execute(mWorker);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                mWorkers--;
+            }
+            Log.w(TAG, "decode worker rejected", e);
+        }
+    }
+
+    /**
+     * Queue a request, or let it follow the request of the same key in flight
+     *
+     * @return true if the request was queued
+     */
+    private boolean enqueue(DecodeRequest request) {
+        request.mNext = null;
+        request.mFollowers = null;
+        request.mNextFollower = null;
+        long key = request.decodeKey();
+        DecodeRequest leader = mInFlight.get(key);
+        if (leader != null) {
+            request.mNextFollower = leader.mFollowers;
+            leader.mFollowers = request;
+            mCoalescedCount++;
+            if (!request.mPrefetch && leader.mQueuedForPrefetch) {
+                // someone is waiting to show this frame now
+                unlinkPrefetch(leader);
+                append(leader, false);
+            }
+            return false;
+        }
+        mInFlight.put(key, request);
+        append(request, request.mPrefetch);
+        return true;
+    }
+
+    private void append(DecodeRequest request, boolean prefetch) {
+        request.mNext = null;
+        request.mQueuedForPrefetch = prefetch;
+        if (prefetch) {
+            if (mPrefetchTail != null) {
+                mPrefetchTail.mNext = request;
+            } else {
+                mPrefetchHead = request;
+            }
+            mPrefetchTail = request;
+        } else {
+            if (mUrgentTail != null) {
+                mUrgentTail.mNext = request;
+            } else {
+                mUrgentHead = request;
+            }
+            mUrgentTail = request;
+        }
+    }
+
+    private void unlinkPrefetch(DecodeRequest request) {
+        DecodeRequest prev = null;
+        for (DecodeRequest r = mPrefetchHead; r != null; prev = r, r = r.mNext) {
+            if (r == request) {
+                if (prev != null) {
+                    prev.mNext = r.mNext;
+                } else {
+                    mPrefetchHead = r.mNext;
+                }
+                if (mPrefetchTail == r) {
+                    mPrefetchTail = prev;
+                }
+                r.mNext = null;
+                r.mQueuedForPrefetch = false;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return next request to decode, frames to be shown first
+     */
+    private DecodeRequest poll() {
+        DecodeRequest request = mUrgentHead;
+        if (request != null) {
+            mUrgentHead = request.mNext;
+            if (mUrgentHead == null) {
+                mUrgentTail = null;
+            }
+        } else {
+            request = mPrefetchHead;
+            if (request == null) {
+                return null;
+            }
+            mPrefetchHead = request.mNext;
+            if (mPrefetchHead == null) {
+                mPrefetchTail = null;
+            }
+        }
+        request.mNext = null;
+        request.mQueuedForPrefetch = false;
+        return request;
+    }
+
+    /**
+     * @return followers of the request, which is no longer in flight
+     */
+    private DecodeRequest finish(DecodeRequest request) {
+        long key = request.decodeKey();
+        if (mInFlight.get(key) == request) {
+            mInFlight.remove(key);
+        }
+        DecodeRequest followers = request.mFollowers;
+        request.mFollowers = null;
+        return followers;
+    }
+
+    private void drain() {
+        while (true) {
+            DecodeRequest request;
+            synchronized (this) {
+                request = poll();
+                if (request == null) {
+                    mWorkers--;
+                    return;
+                }
+            }
+            if (request.isStale()) {
+                DecodeRequest followers;
+                synchronized (this) {
+                    mDroppedCount++;
+                    followers = finish(request);
+                    // let the followers still wanted decode on their own
+                    while (followers != null) {
+                        DecodeRequest next = followers.mNextFollower;
+                        enqueue(followers);
+                        followers = next;
+                    }
+                }
+                request.setResult(null);
+                // deliver even dropped requests so they get recycled on main thread
+                mMainHandler.post(request);
+                continue;
+            }
+            Bitmap decoded = decode(request);
+            DecodeRequest followers;
+            synchronized (this) {
+                followers = finish(request);
+            }
+            // followers are known by now, so a shared bitmap is marked so before it's cached
+            Bitmap result = publish(request, decoded, followers != null);
+            mMainHandler.post(request);
+            while (followers != null) {
+                DecodeRequest next = followers.mNextFollower;
+                followers.mNextFollower = null;
+                if (followers.isStale()) {
+                    synchronized (this) {
+                        mDroppedCount++;
+                    }
+                    followers.setResult(null);
+                } else if (result != null) {
+                    adopt(followers, result);
+                } else {
+                    publish(followers, decode(followers), false);
+                }
+                mMainHandler.post(followers);
+                followers = next;
+            }
+        }
+    }
+
+    private Bitmap decode(DecodeRequest request) {
+        try {
+            return request.decode();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "decode frame failed", e);
+            return null;
+        }
+    }
+
+    private Bitmap publish(DecodeRequest request, Bitmap decoded, boolean shared) {
+        Bitmap result = null;
+        if (decoded != null) {
+            try {
+                result = request.publish(decoded, shared);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "decode frame failed", e);
+            }
+        }
+        return complete(request, result);
+    }
+
+    /**
+     * @param shared result of the leading request
+     */
+    private Bitmap adopt(DecodeRequest request, Bitmap shared) {
+        Bitmap result;
+        try {
+            result = request.adopt(shared);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "decode frame failed", e);
+            result = null;
+        }
+        return complete(request, result);
+    }
+
+    private Bitmap complete(DecodeRequest request, Bitmap result) {
+        if (request.mWasted) {
+            synchronized (this) {
+                mWastedCount++;
+            }
+        }
+        request.setResult(result);
+        return result;
+    }
+
+    /**
+     * Returns the number of requests dropped before decoding since they had been superseded.
+     */
+    public synchronized int droppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Returns the number of frames decoded for nothing, since their animation had been stopped
+     * or hidden while decoding.
+     */
+    public synchronized int wastedCount() {
+        return mWastedCount;
+    }
+
+    /**
+     * Returns the number of requests served by the decode of another request for the same frame.
+     */
+    public synchronized int coalescedCount() {
+        return mCoalescedCount;
+    }
+
+    private static Executor newExecutor(int threads, final int priority) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads <= 0");
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(@NonNull final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(priority);
+                            r.run();
+                        }
+                    }, "FrameDecoder #" + mCount.getAndIncrement());
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
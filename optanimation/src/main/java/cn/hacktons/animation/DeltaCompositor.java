@@ -0,0 +1,126 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * The single bitmap a {@link LazyAnimationDrawable} draws in delta mode, patched frame by frame
+ * with the patches of a {@link DeltaFrameSource}. Patches are decoded off the main thread but
+ * applied on it, so a frame is never drawn half patched.
+ */
+@MainThread
+final class DeltaCompositor {
+    private final DeltaFrameSource mSource;
+    private final Paint mPaint = new Paint();
+    private final Rect mDirty = new Rect();
+    private Bitmap mComposite;
+    private Canvas mCanvas;
+    /**
+     * frame shown by the composite, -1 before the keyframe is drawn
+     */
+    private int mFrame = -1;
+
+    DeltaCompositor(@NonNull DeltaFrameSource source) {
+        mSource = source;
+        // patches replace pixels, including transparent ones
+        mPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
+    @Nullable
+    Bitmap getComposite() {
+        return mComposite;
+    }
+
+    int getFrame() {
+        return mFrame;
+    }
+
+    /**
+     * @return true if reaching {@code target} from the current frame costs more patches than
+     * starting over from the keyframe, or can't be done at all
+     */
+    boolean shouldRestart(int target, boolean loop) {
+        if (mFrame < 0) {
+            return true;
+        }
+        int count = mSource.getFrameCount();
+        if (!loop && target < mFrame) {
+            return true;
+        }
+        int forward = (target - mFrame + count) % count;
+        return target + 1 < forward;
+    }
+
+    /**
+     * @param base frame the patches are applied on, -1 for the keyframe
+     * @return number of patches on the way from {@code base} to {@code target}
+     */
+    int patchCount(int base, int target) {
+        int count = mSource.getFrameCount();
+        return base < 0 ? target : (target - base + count) % count;
+    }
+
+    /**
+     * Frames patched on the way from {@code base} to {@code target}
+     *
+     * @param base frame the patches are applied on, -1 for the keyframe
+     * @return the frame of each patch in order
+     */
+    int[] patchFrames(int base, int target, int[] reuse) {
+        int count = mSource.getFrameCount();
+        int length = patchCount(base, target);
+        int[] frames = reuse != null && reuse.length >= length ? reuse : new int[length];
+        int frame = base < 0 ? 0 : base;
+        for (int i = 0; i < length; i++) {
+            frame = (frame + 1) % count;
+            frames[i] = frame;
+        }
+        return frames;
+    }
+
+    /**
+     * Start over from the keyframe
+     *
+     * @param keyframe decoded keyframe, used as the composite if it's mutable
+     */
+    void reset(@NonNull Bitmap keyframe) {
+        if (mComposite == null) {
+            mComposite = keyframe.isMutable() ? keyframe : keyframe.copy(keyframe.getConfig(),
+                true);
+            mCanvas = new Canvas(mComposite);
+        } else if (keyframe != mComposite) {
+            mCanvas.drawBitmap(keyframe, 0, 0, mPaint);
+        }
+        mFrame = 0;
+    }
+
+    /**
+     * Apply decoded patches in order
+     *
+     * @param frames  frame of each patch
+     * @param patches patch of each frame, null if the frame didn't change
+     * @param target  the frame shown afterwards
+     * @return rect changed in the composite, in composite pixels
+     */
+    Rect apply(int[] frames, Bitmap[] patches, int count, int target) {
+        mDirty.setEmpty();
+        for (int i = 0; i < count; i++) {
+            Bitmap patch = patches[i];
+            if (patch == null) {
+                continue;
+            }
+            Rect rect = mSource.getDirtyRect(frames[i]);
+            mCanvas.drawBitmap(patch, rect.left, rect.top, mPaint);
+            mDirty.union(rect);
+        }
+        mFrame = target;
+        return mDirty;
+    }
+}
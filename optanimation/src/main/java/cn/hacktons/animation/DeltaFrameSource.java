@@ -0,0 +1,199 @@
+package cn.hacktons.animation;
+
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RawRes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frames of a delta pack made by the {@code packer} tool: a keyframe plus, for each frame, the
+ * rect which changed since the previous frame and a png patch of it. A {@link
+ * LazyAnimationDrawable} playing a delta pack composites the patches onto a single bitmap, so
+ * memory is about one frame plus a few patches, and decoding cost follows the changed area.
+ * <p>
+ * The patch of frame 0 leads from the last frame back to the first, so looping never decodes
+ * the keyframe again. The pack is held in memory encoded, patches are usually small.
+ */
+public final class DeltaFrameSource implements FrameSource {
+    private static final int MAGIC = 0x4641444C;
+    private static final int VERSION = 1;
+
+    private final byte[] mPack;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mKeyframeOffset;
+    private final int mKeyframeLength;
+    private final Rect[] mDirty;
+    private final int[] mPatchOffsets;
+    private final int[] mPatchLengths;
+    private final int mFirstKey;
+
+    /**
+     * @param pack the delta pack
+     * @throws IOException if it's not a delta pack
+     */
+    public DeltaFrameSource(@NonNull byte[] pack) throws IOException {
+        mPack = pack;
+        ByteBuffer buffer = ByteBuffer.wrap(pack);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("not a delta pack");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported delta pack version " + version);
+            }
+            mWidth = buffer.getInt();
+            mHeight = buffer.getInt();
+            int count = buffer.getInt();
+            mKeyframeLength = buffer.getInt();
+            mKeyframeOffset = skip(buffer, mKeyframeLength);
+            mDirty = new Rect[count];
+            mPatchOffsets = new int[count];
+            mPatchLengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                mDirty[i] = new Rect(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer
+                    .getInt());
+                mPatchLengths[i] = buffer.getInt();
+                mPatchOffsets[i] = skip(buffer, mPatchLengths[i]);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("truncated delta pack", e);
+        }
+        mFirstKey = FrameKeys.allocate(mDirty.length);
+    }
+
+    public static DeltaFrameSource fromFile(@NonNull File file) throws IOException {
+        return new DeltaFrameSource(readFully(new FileInputStream(file)));
+    }
+
+    public static DeltaFrameSource fromResource(@NonNull Resources resources, @RawRes int resId)
+        throws IOException {
+        return new DeltaFrameSource(readFully(resources.openRawResource(resId)));
+    }
+
+    public static DeltaFrameSource fromAsset(@NonNull AssetManager assets, @NonNull String path)
+        throws IOException {
+        return new DeltaFrameSource(readFully(assets.open(path)));
+    }
+
+    @Override
+    public int getFrameCount() {
+        return mDirty.length;
+    }
+
+    @Override
+    public int getFrameKey(int index) {
+        return mFirstKey + index;
+    }
+
+    @Override
+    public void decodeBounds(int index, @NonNull BitmapFactory.Options options) {
+        options.outWidth = mWidth;
+        options.outHeight = mHeight;
+        options.outMimeType = "image/png";
+    }
+
+    /**
+     * Decode a whole frame by compositing the patches up to it onto the keyframe, playback
+     * composites incrementally instead
+     */
+    @Override
+    public Bitmap decode(int index, @NonNull BitmapFactory.Options options) {
+        options.inMutable = true;
+        Bitmap frame = decodeKeyframe(options);
+        if (frame == null || index == 0) {
+            return frame;
+        }
+        Canvas canvas = new Canvas(frame);
+        if (options.inSampleSize > 1) {
+            canvas.scale(1f / options.inSampleSize, 1f / options.inSampleSize);
+        }
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        BitmapFactory.Options patchOptions = new BitmapFactory.Options();
+        patchOptions.inPreferredConfig = options.inPreferredConfig;
+        for (int i = 1; i <= index; i++) {
+            Bitmap patch = decodePatch(i, patchOptions);
+            if (patch != null) {
+                canvas.drawBitmap(patch, mDirty[i].left, mDirty[i].top, paint);
+            }
+        }
+        return frame;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    @Nullable
+    Bitmap decodeKeyframe(@NonNull BitmapFactory.Options options) {
+        return BitmapFactory.decodeByteArray(mPack, mKeyframeOffset, mKeyframeLength, options);
+    }
+
+    /**
+     * @return rect of the frame which changed since the previous frame, empty if nothing changed
+     */
+    Rect getDirtyRect(int index) {
+        return mDirty[index];
+    }
+
+    /**
+     * @return pixels of the dirty rect of the frame, null if nothing changed
+     */
+    @Nullable
+    Bitmap decodePatch(int index, @NonNull BitmapFactory.Options options) {
+        if (mPatchLengths[index] == 0) {
+            return null;
+        }
+        return BitmapFactory.decodeByteArray(mPack, mPatchOffsets[index], mPatchLengths[index],
+            options);
+    }
+
+    /**
+     * @return offset of the skipped bytes
+     */
+    private static int skip(ByteBuffer buffer, int length) {
+        int offset = buffer.position();
+        buffer.position(offset + length);
+        return offset;
+    }
+
+    static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 8192));
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
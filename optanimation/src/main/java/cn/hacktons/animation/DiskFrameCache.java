@@ -0,0 +1,530 @@
+package cn.hacktons.animation;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Looper;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps decoded frames on disk as raw pixels, for devices where decoding is slower than reading
+ * storage. The first time a frame is decoded its pixels are written to a file of the cache
+ * directory, later decodes read the file and copy the pixels into the bitmap with
+ * {@link Bitmap#copyPixelsFromBuffer}, {@link BitmapFactory} is skipped entirely. Files are read
+ * and written through a few buffers kept by the cache rather than mapped, since a mapping is only
+ * released by gc and address space would grow with the number of frames. The first frame, which
+ * is decoded on the main thread, is never read from or written to disk.
+ * <p>
+ * Only frames of a {@link PersistentFrameSource} are kept, frames are stored per sample size and
+ * config. Least recently used files are deleted once the total size exceeds the budget. Frames of
+ * files are named by length and modification time, so a changed file is decoded again; all
+ * files are deleted when the app is updated, which may change resources and assets.
+ * <pre>
+ *     {@code new AnimationBuilder()
+ *         .frames(IMAGE_RESOURCES, 40)
+ *         .diskCache(new DiskFrameCache(context, 64 * 1024 * 1024))
+ *         .into(imageView);
+ * }
+ * </pre>
+ */
+public final class DiskFrameCache {
+    private static final String TAG = "DiskFrameCache";
+    private static final int MAGIC = 0x46415058;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".px";
+    private static final String VERSION_FILE = "version";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * buffers kept for reuse at most, as many as default decode threads
+     */
+    private static final int MAX_SPARE_BUFFERS = 2;
+
+    private final File mDirectory;
+    private final long mAppVersion;
+    /**
+     * size of each file, least recently used first
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * buffers holding the content of a frame file, free for the next read or write
+     */
+    private final ArrayList<ByteBuffer> mSpareBuffers = new ArrayList<>();
+    private long mMaxBytes;
+    private long mSize;
+    private boolean mLoaded;
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Frames are kept in the {@code frames} directory of the app cache, and dropped when the app
+     * is updated
+     *
+     * @param maxBytes max bytes of all files
+     */
+    public DiskFrameCache(@NonNull Context context, @IntRange(from = 1) long maxBytes) {
+        this(new File(context.getCacheDir(), "frames"), appVersion(context), maxBytes);
+    }
+
+    /**
+     * @param directory directory owned by the cache, files of other caches must not be put there
+     * @param maxBytes  max bytes of all files
+     */
+    public DiskFrameCache(@NonNull File directory, @IntRange(from = 1) long maxBytes) {
+        this(directory, 0, maxBytes);
+    }
+
+    private DiskFrameCache(File directory, long appVersion, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        mDirectory = directory;
+        mAppVersion = appVersion;
+        mMaxBytes = maxBytes;
+    }
+
+    private static long appVersion(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0)
+                .lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return a source keeping the frames of {@code source} in this cache, or {@code source} itself
+     * if its frames can't be named
+     */
+    @NonNull
+    public FrameSource wrap(@NonNull FrameSource source) {
+        if (source instanceof PersistentFrameSource) {
+            return new CachedSource((PersistentFrameSource) source);
+        }
+        return source;
+    }
+
+    public synchronized void setMaxBytes(@IntRange(from = 1) long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        mMaxBytes = maxBytes;
+        if (mLoaded) {
+            trimToSize();
+        }
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * @return bytes of all files, known once the cache has been used
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * @return number of frames read from disk instead of being decoded
+     */
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return number of frames which had to be decoded
+     */
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    /**
+     * delete all files
+     */
+    @WorkerThread
+    public synchronized void clear() {
+        load();
+        for (String file : mEntries.keySet()) {
+            new File(mDirectory, file).delete();
+        }
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * @param name    name of the frame, with its decode options
+     * @param options {@code inBitmap} is filled if it can hold the frame
+     * @return the frame, or null if it's not on disk
+     */
+    @WorkerThread
+    @Nullable
+    Bitmap read(@NonNull String name, @NonNull BitmapFactory.Options options) throws IOException {
+        String file = fileName(name);
+        synchronized (this) {
+            load();
+            if (mEntries.get(file) == null) {
+                mMissCount++;
+                return null;
+            }
+        }
+        FileInputStream in;
+        try {
+            in = new FileInputStream(new File(mDirectory, file));
+        } catch (FileNotFoundException e) {
+            // deleted behind our back
+            remove(file);
+            return null;
+        }
+        ByteBuffer buffer = null;
+        Bitmap bitmap;
+        try {
+            try {
+                FileChannel channel = in.getChannel();
+                long length = channel.size();
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("frame file too large");
+                }
+                buffer = obtainBuffer((int) length);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // read until the end
+                }
+                buffer.flip();
+            } finally {
+                in.close();
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("not a frame file");
+            }
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            Bitmap.Config[] configs = Bitmap.Config.values();
+            int config = buffer.getInt();
+            boolean hasAlpha = buffer.getInt() != 0;
+            byte[] stored = new byte[buffer.getInt()];
+            buffer.get(stored);
+            if (config < 0 || config >= configs.length || !Arrays.equals(stored, name.getBytes
+                (UTF_8))) {
+                // another frame of the same hash
+                throw new IOException("not frame " + name);
+            }
+            buffer.position(align(buffer.position()));
+            if (buffer.remaining() < (long) width * height * BitmapUtil.getBytesPerPixel
+                (configs[config])) {
+                throw new IOException("truncated frame file");
+            }
+            bitmap = BitmapUtil.obtainBitmap(options.inBitmap, width, height, configs[config]);
+            bitmap.copyPixelsFromBuffer(buffer);
+            bitmap.setHasAlpha(hasAlpha);
+        } catch (IOException | BufferUnderflowException e) {
+            Log.w(TAG, "drop frame file of " + name, e);
+            remove(file);
+            return null;
+        } finally {
+            if (buffer != null) {
+                recycleBuffer(buffer);
+            }
+        }
+        synchronized (this) {
+            mHitCount++;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Keep the pixels of a decoded frame, the bitmap is only read
+     *
+     * @param name name of the frame, with its decode options
+     */
+    @WorkerThread
+    void write(@NonNull String name, @NonNull Bitmap bitmap) throws IOException {
+        Bitmap.Config config = bitmap.getConfig();
+        if (config == null) {
+            return;
+        }
+        byte[] nameBytes = name.getBytes(UTF_8);
+        int header = align(28 + nameBytes.length);
+        long length = header + (long) bitmap.getByteCount();
+        synchronized (this) {
+            load();
+            if (length > mMaxBytes || length > Integer.MAX_VALUE) {
+                return;
+            }
+        }
+        String file = fileName(name);
+        File temp = File.createTempFile("frame", ".tmp", mDirectory);
+        try {
+            ByteBuffer buffer = obtainBuffer((int) length);
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                buffer.putInt(MAGIC);
+                buffer.putInt(VERSION);
+                buffer.putInt(bitmap.getWidth());
+                buffer.putInt(bitmap.getHeight());
+                buffer.putInt(config.ordinal());
+                buffer.putInt(bitmap.hasAlpha() ? 1 : 0);
+                buffer.putInt(nameBytes.length);
+                buffer.put(nameBytes);
+                buffer.position(header);
+                bitmap.copyPixelsToBuffer(buffer);
+                buffer.flip();
+                FileChannel channel = out.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                recycleBuffer(buffer);
+                out.close();
+            }
+            if (!temp.renameTo(new File(mDirectory, file))) {
+                throw new IOException("can't rename " + temp);
+            }
+        } finally {
+            temp.delete();
+        }
+        synchronized (this) {
+            Long old = mEntries.put(file, length);
+            mSize += length - (old != null ? old : 0);
+            trimToSize();
+        }
+    }
+
+    private synchronized void remove(String file) {
+        Long length = mEntries.remove(file);
+        if (length != null) {
+            mSize -= length;
+        }
+        new File(mDirectory, file).delete();
+    }
+
+    /**
+     * Index the files left by earlier processes, oldest first, dropping them all if they were
+     * written by another version of the app
+     */
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "can't create " + mDirectory);
+        }
+        File[] files = mDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile();
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        File versionFile = new File(mDirectory, VERSION_FILE);
+        boolean outdated = mAppVersion != readVersion(versionFile);
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(SUFFIX) && !outdated) {
+                mEntries.put(name, file.length());
+                mSize += file.length();
+            } else if (!name.equals(VERSION_FILE)) {
+                // outdated frames and temp files of a killed process
+                file.delete();
+            }
+        }
+        if (outdated) {
+            writeVersion(versionFile);
+        }
+        trimToSize();
+    }
+
+    private long readVersion(File file) {
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                return in.readLong();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void writeVersion(File file) {
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            try {
+                out.writeLong(mAppVersion);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "can't write " + file, e);
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(mDirectory, eldest.getKey()).delete();
+            mSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private static String fileName(String name) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(name.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        StringBuilder builder = new StringBuilder(digest.length * 2 + SUFFIX.length());
+        for (byte b : digest) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.append(SUFFIX).toString();
+    }
+
+    /**
+     * @return a spare buffer, or a new one, cleared with a limit of {@code length}
+     */
+    private ByteBuffer obtainBuffer(int length) {
+        ByteBuffer buffer = null;
+        synchronized (mSpareBuffers) {
+            for (int i = mSpareBuffers.size() - 1; i >= 0; i--) {
+                if (mSpareBuffers.get(i).capacity() >= length) {
+                    buffer = mSpareBuffers.remove(i);
+                    break;
+                }
+            }
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(length);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+
+    /**
+     * keep {@code buffer} for the next frame, in place of the smallest spare if there are enough
+     */
+    private void recycleBuffer(@NonNull ByteBuffer buffer) {
+        synchronized (mSpareBuffers) {
+            if (mSpareBuffers.size() < MAX_SPARE_BUFFERS) {
+                mSpareBuffers.add(buffer);
+                return;
+            }
+            int smallest = 0;
+            for (int i = 1; i < mSpareBuffers.size(); i++) {
+                if (mSpareBuffers.get(i).capacity() < mSpareBuffers.get(smallest).capacity()) {
+                    smallest = i;
+                }
+            }
+            if (mSpareBuffers.get(smallest).capacity() < buffer.capacity()) {
+                mSpareBuffers.set(smallest, buffer);
+            }
+        }
+    }
+
+    /**
+     * pixels start at a multiple of 8 bytes
+     */
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    /**
+     * Reads frames from disk, decodes them with the wrapped source otherwise
+     */
+    private final class CachedSource implements FrameSource {
+        private final PersistentFrameSource mSource;
+
+        CachedSource(PersistentFrameSource source) {
+            mSource = source;
+        }
+
+        @Override
+        public int getFrameCount() {
+            return mSource.getFrameCount();
+        }
+
+        @Override
+        public int getFrameKey(int index) {
+            return mSource.getFrameKey(index);
+        }
+
+        @Override
+        public void decodeBounds(int index, @NonNull BitmapFactory.Options options) throws
+            IOException {
+            mSource.decodeBounds(index, options);
+        }
+
+        @Override
+        public Bitmap decode(int index, @NonNull BitmapFactory.Options options) throws
+            IOException {
+            String frame = mSource.getFrameName(index);
+            if (frame == null || options.inJustDecodeBounds
+                || Looper.myLooper() == Looper.getMainLooper()) {
+                // the first frame is decoded on the main thread, which must not touch the disk;
+                // its config may not even be the one of the frames that follow
+                return mSource.decode(index, options);
+            }
+            String name = frame + "@" + Math.max(1, options.inSampleSize) + ":"
+                + options.inPreferredConfig;
+            Bitmap bitmap = read(name, options);
+            if (bitmap == null) {
+                bitmap = mSource.decode(index, options);
+                if (bitmap != null) {
+                    try {
+                        write(name, bitmap);
+                    } catch (IOException e) {
+                        // storage full or gone, keep playing
+                        Log.w(TAG, "write frame " + name + " failed", e);
+                    }
+                }
+            }
+            return bitmap;
+        }
+
+        @Override
+        public void close() {
+            mSource.close();
+        }
+    }
+}
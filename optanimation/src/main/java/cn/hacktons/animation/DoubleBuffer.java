@@ -0,0 +1,99 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+
+/**
+ * The two bitmaps of a {@link LazyAnimationDrawable} in streaming mode: the front one is drawn,
+ * the next frame is decoded into the back one, and they swap when the next frame is due. Nothing
+ * else is kept, so memory stays at two frames whatever the frame count.
+ * <p>
+ * While the back buffer is being decoded into, it's owned by the decoding thread.
+ */
+@MainThread
+final class DoubleBuffer {
+    private Bitmap mFront;
+    private Bitmap mBack;
+    /**
+     * frames held by the buffers, -1 if none
+     */
+    private int mFrontFrame = -1;
+    private int mBackFrame = -1;
+    private boolean mDecoding;
+
+    @Nullable
+    Bitmap getFront() {
+        return mFront;
+    }
+
+    int getFrontFrame() {
+        return mFrontFrame;
+    }
+
+    int getBackFrame() {
+        return mBackFrame;
+    }
+
+    boolean isDecoding() {
+        return mDecoding;
+    }
+
+    void setFront(@Nullable Bitmap front, int frame) {
+        mFront = front;
+        mFrontFrame = front != null ? frame : -1;
+    }
+
+    /**
+     * Hand the back buffer over to a decoding thread, until {@link #endDecode}
+     *
+     * @return the bitmap to decode into, null if there is none yet
+     */
+    @Nullable
+    Bitmap beginDecode() {
+        Bitmap back = mBack;
+        mBack = null;
+        mBackFrame = -1;
+        mDecoding = true;
+        return back;
+    }
+
+    /**
+     * @param back  the back buffer, the decoded frame or the bitmap handed over if decoding failed
+     * @param frame frame decoded into it, -1 if none
+     */
+    void endDecode(@Nullable Bitmap back, int frame) {
+        mBack = back;
+        mBackFrame = back != null ? frame : -1;
+        mDecoding = false;
+    }
+
+    /**
+     * show the back buffer
+     */
+    void swap() {
+        Bitmap front = mFront;
+        int frontFrame = mFrontFrame;
+        mFront = mBack;
+        mFrontFrame = mBackFrame;
+        mBack = front;
+        mBackFrame = frontFrame;
+    }
+
+    /**
+     * forget what the back buffer holds, such as after the decode options changed
+     */
+    void invalidateBack() {
+        mBackFrame = -1;
+    }
+
+    /**
+     * drop the back buffer when the animation doesn't play
+     */
+    void releaseBack() {
+        if (!mDecoding) {
+            mBack = null;
+            mBackFrame = -1;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Keeps the encoded images of frames in memory, between the decoded frame caches and the frame
+ * source. A frame evicted from the decoded caches is decoded again from memory with
+ * {@link BitmapFactory#decodeByteArray}, without opening the apk or the file again.
+ * <p>
+ * Encoded frames are often 10-20x smaller than decoded ones, so a whole loop fits in the room of a
+ * few decoded frames. Frames of an {@link EncodedFrameSource} are kept by frame key, with a byte
+ * budget of their own; like the decoded caches, the most recently used frame is evicted first,
+ * which keeps the most frames of a loop.
+ * <pre>
+ *     {@code new AnimationBuilder()
+ *         .frames(IMAGE_RESOURCES, 40)
+ *         .encodedCache(new EncodedFrameCache(4 * 1024 * 1024))
+ *         .into(imageView);
+ * }
+ * </pre>
+ */
+public final class EncodedFrameCache {
+    private final IntKeyFrameCache<byte[]> mFrames;
+
+    /**
+     * @param maxBytes max bytes of all encoded frames
+     */
+    public EncodedFrameCache(@IntRange(from = 1) int maxBytes) {
+        mFrames = new IntKeyFrameCache<byte[]>(maxBytes) {
+            @Override
+            protected int sizeOf(int key, byte[] value) {
+                return value.length;
+            }
+        };
+    }
+
+    /**
+     * @return a source keeping the encoded frames of {@code source} in this cache, or
+     * {@code source} itself if it can't read them
+     */
+    @NonNull
+    public FrameSource wrap(@NonNull FrameSource source) {
+        if (source instanceof EncodedFrameSource) {
+            return new CachedSource((EncodedFrameSource) source);
+        }
+        return source;
+    }
+
+    public void setMaxBytes(@IntRange(from = 1) int maxBytes) {
+        mFrames.resize(maxBytes);
+    }
+
+    public int getMaxBytes() {
+        return mFrames.maxSize();
+    }
+
+    /**
+     * @return bytes of all encoded frames
+     */
+    public int size() {
+        return mFrames.size();
+    }
+
+    /**
+     * @return number of encoded frames
+     */
+    public int count() {
+        return mFrames.count();
+    }
+
+    /**
+     * @return number of frames decoded from memory
+     */
+    public int hitCount() {
+        return mFrames.hitCount();
+    }
+
+    /**
+     * @return number of frames read from their source
+     */
+    public int missCount() {
+        return mFrames.missCount();
+    }
+
+    public int evictionCount() {
+        return mFrames.evictionCount();
+    }
+
+    public void clear() {
+        mFrames.evictAll();
+    }
+
+    /**
+     * Decodes frames from memory, reads them from the wrapped source first if needed. It's
+     * persistent if the wrapped source is, so it can be wrapped by {@link DiskFrameCache}.
+     */
+    private final class CachedSource implements PersistentFrameSource {
+        private final EncodedFrameSource mSource;
+
+        CachedSource(EncodedFrameSource source) {
+            mSource = source;
+        }
+
+        @Override
+        public int getFrameCount() {
+            return mSource.getFrameCount();
+        }
+
+        @Override
+        public int getFrameKey(int index) {
+            return mSource.getFrameKey(index);
+        }
+
+        @Nullable
+        @Override
+        public String getFrameName(int index) {
+            if (mSource instanceof PersistentFrameSource) {
+                return ((PersistentFrameSource) mSource).getFrameName(index);
+            }
+            return null;
+        }
+
+        @Override
+        public void decodeBounds(int index, @NonNull BitmapFactory.Options options) throws
+            IOException {
+            options.inJustDecodeBounds = true;
+            try {
+                decode(index, options);
+            } finally {
+                options.inJustDecodeBounds = false;
+            }
+        }
+
+        @Override
+        public Bitmap decode(int index, @NonNull BitmapFactory.Options options) throws
+            IOException {
+            int key = mSource.getFrameKey(index);
+            byte[] bytes = mFrames.get(key);
+            if (bytes == null) {
+                bytes = mSource.readFrameBytes(index);
+                mFrames.put(key, bytes);
+            }
+            return mSource.decodeFrameBytes(index, bytes, options);
+        }
+
+        @Override
+        public void close() {
+            mSource.close();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.io.IOException;
+
+/**
+ * A {@link FrameSource} whose frames are encoded images which can be read into memory, so
+ * {@link EncodedFrameCache} can keep them and decode again without reading the source.
+ */
+public interface EncodedFrameSource extends FrameSource {
+
+    /**
+     * @return the encoded image of the frame, such as the bytes of a png file
+     */
+    @WorkerThread
+    @NonNull
+    byte[] readFrameBytes(int index) throws IOException;
+
+    /**
+     * Decode the bytes read by {@link #readFrameBytes(int)}, as {@link #decode} would
+     *
+     * @return decoded frame, or null if the frame can't be decoded
+     */
+    @WorkerThread
+    @Nullable
+    Bitmap decodeFrameBytes(int index, @NonNull byte[] bytes, @NonNull BitmapFactory.Options
+        options);
+}
@@ -0,0 +1,18 @@
+package cn.hacktons.animation;
+
+/**
+ * Chooses which entry of an {@link IntKeyFrameCache} is evicted to make space.
+ * <p>
+ * The cache asks for the priority of each cached key and evicts the one with the highest
+ * priority, ties are broken in favor of the most recently used entry. Priorities are queried
+ * while the cache holds its lock, so implementations should be cheap and must not call back into
+ * the cache. See {@link OrderedEvictionPolicy} for policies which can list their keys in order.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * @param key cached key
+     * @return eviction priority of the key, higher values are evicted first
+     */
+    int priority(int key);
+}
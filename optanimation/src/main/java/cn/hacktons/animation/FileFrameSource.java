@@ -0,0 +1,113 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Frames of image files on disk, such as an animation pack downloaded at runtime. Frames are keyed
+ * by path, length and modification time, so a file replaced by a new download is decoded again
+ * instead of being served from cache.
+ * <p>
+ * Files are decoded straight from their descriptor, the pixels never go through a java buffer.
+ */
+public final class FileFrameSource implements PersistentFrameSource, EncodedFrameSource {
+    private final File[] mFiles;
+    private final String[] mNames;
+    private final int[] mKeys;
+
+    /**
+     * @param files image file of each frame
+     */
+    public FileFrameSource(@NonNull File[] files) {
+        mFiles = files.clone();
+        mNames = new String[files.length];
+        mKeys = new int[files.length];
+        for (int i = 0; i < files.length; i++) {
+            File file = files[i];
+            mNames[i] = "file:" + file.getAbsolutePath() + ":" + file.length() + ":" + file
+                .lastModified();
+            mKeys[i] = FrameKeys.intern(mNames[i]);
+        }
+    }
+
+    /**
+     * Frames of all png and jpg files in a directory, ordered by file name
+     *
+     * @param directory directory of frame images
+     */
+    public static FileFrameSource fromDirectory(@NonNull File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName().toLowerCase();
+                return file.isFile() && (name.endsWith(".png") || name.endsWith(".jpg")
+                    || name.endsWith(".jpeg"));
+            }
+        });
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files);
+        return new FileFrameSource(files);
+    }
+
+    @Override
+    public int getFrameCount() {
+        return mFiles.length;
+    }
+
+    @Override
+    public int getFrameKey(int index) {
+        return mKeys[index];
+    }
+
+    @Override
+    public void decodeBounds(int index, @NonNull BitmapFactory.Options options) throws
+        IOException {
+        options.inJustDecodeBounds = true;
+        try {
+            decode(index, options);
+        } finally {
+            options.inJustDecodeBounds = false;
+        }
+    }
+
+    @Override
+    public Bitmap decode(int index, @NonNull BitmapFactory.Options options) throws IOException {
+        FileInputStream in = new FileInputStream(mFiles[index]);
+        try {
+            // the decoder reads from the current position of the descriptor
+            in.getChannel().position(0);
+            return BitmapFactory.decodeFileDescriptor(in.getFD(), null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String getFrameName(int index) {
+        return mNames[index];
+    }
+
+    @Override
+    public byte[] readFrameBytes(int index) throws IOException {
+        return DeltaFrameSource.readFully(new FileInputStream(mFiles[index]));
+    }
+
+    @Override
+    public Bitmap decodeFrameBytes(int index, @NonNull byte[] bytes, @NonNull BitmapFactory
+        .Options options) {
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,175 @@
+package cn.hacktons.animation;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Timeline of a {@link LazyAnimationDrawable}, ticked by {@link AnimationTicker} on vsync. The
+ * frame to show is worked out from the time elapsed since the animation started against the
+ * cumulative frame durations, instead of scheduling each frame after the previous one was
+ * handled, so late callbacks and slow decodes never push the timeline back: a late frame is shown
+ * late, the following ones are still on time.
+ */
+@MainThread
+final class FrameClock {
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    interface Listener {
+        /**
+         * @param frameTimeNanos vsync time, in the {@link System#nanoTime()} time base
+         */
+        void onFrameTime(long frameTimeNanos);
+    }
+
+    private final Listener mListener;
+    /**
+     * time each frame ends at, in milliseconds from the start of the first frame
+     */
+    private long[] mEnds = new long[0];
+    private long mStartNanos;
+    private boolean mRunning;
+    /**
+     * state kept by {@link AnimationTicker}
+     */
+    boolean mPosted;
+    long mWakeNanos;
+    int mGeneration;
+
+    FrameClock(@NonNull Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param durations milliseconds each frame is shown, frames of 0ms last 1ms
+     * @param count     number of frames
+     */
+    void setDurations(@NonNull int[] durations, int count) {
+        long[] ends = new long[count];
+        long end = 0;
+        for (int i = 0; i < count; i++) {
+            end += Math.max(1, durations[i]);
+            ends[i] = end;
+        }
+        mEnds = ends;
+    }
+
+    /**
+     * @return milliseconds of all frames
+     */
+    long getTotalDuration() {
+        return mEnds.length > 0 ? mEnds[mEnds.length - 1] : 0;
+    }
+
+    /**
+     * Start the timeline at the beginning of {@code frame}, ticks come on next vsync
+     */
+    void start(int frame) {
+        startAt(startOf(frame));
+    }
+
+    /**
+     * @return milliseconds {@code frame} starts at, from the start of the first frame
+     */
+    long startOf(int frame) {
+        return frame > 0 && frame <= mEnds.length ? mEnds[frame - 1] : 0;
+    }
+
+    /**
+     * @param loop false if the timeline stops at the last frame
+     * @return milliseconds {@code frameTimeNanos} is into {@code frame}, 0 if another frame is
+     * due by then
+     */
+    long offsetInFrame(int frame, long frameTimeNanos, boolean loop) {
+        if (frame < 0 || frame >= mEnds.length) {
+            return 0;
+        }
+        long elapsed = Math.max(0, (frameTimeNanos - mStartNanos) / NANOS_PER_MILLI);
+        if (loop) {
+            elapsed %= mEnds[mEnds.length - 1];
+        }
+        long offset = elapsed - startOf(frame);
+        return offset >= 0 && elapsed < mEnds[frame] ? offset : 0;
+    }
+
+    /**
+     * Start the timeline {@code millis} after the start of the first frame
+     */
+    void startAt(long millis) {
+        mStartNanos = System.nanoTime() - Math.max(0, millis) * NANOS_PER_MILLI;
+        mRunning = true;
+        postNext();
+    }
+
+    void stop() {
+        mRunning = false;
+        if (mPosted) {
+            mPosted = false;
+            AnimationTicker.getInstance().remove(this);
+        }
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * tick again on next vsync
+     */
+    void postNext() {
+        if (mRunning && !mPosted) {
+            mPosted = true;
+            AnimationTicker.getInstance().post(this, 0);
+        }
+    }
+
+    /**
+     * tick again on the first vsync after {@code delayMillis}, the timeline goes on meanwhile
+     */
+    void postDelayed(long delayMillis) {
+        if (mRunning && !mPosted) {
+            mPosted = true;
+            AnimationTicker.getInstance().post(this,
+                System.nanoTime() + delayMillis * NANOS_PER_MILLI);
+        }
+    }
+
+    /**
+     * @param loop false to stay on the last frame once all frames are shown
+     * @return the frame due at {@code frameTimeNanos}
+     */
+    int frameAt(long frameTimeNanos, boolean loop) {
+        return frameAtTime((frameTimeNanos - mStartNanos) / NANOS_PER_MILLI, loop);
+    }
+
+    /**
+     * @param millis time from the start of the first frame
+     * @param loop   false to stay on the last frame once all frames are shown
+     * @return the frame shown at {@code millis}, found by binary search of the frame end times
+     */
+    int frameAtTime(long millis, boolean loop) {
+        int count = mEnds.length;
+        if (count == 0) {
+            return 0;
+        }
+        long elapsed = Math.max(0, millis);
+        long total = mEnds[count - 1];
+        if (elapsed >= total) {
+            if (!loop) {
+                return count - 1;
+            }
+            elapsed %= total;
+        }
+        // the first frame ending after elapsed
+        int index = Arrays.binarySearch(mEnds, elapsed);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    void doFrame(long frameTimeNanos) {
+        mPosted = false;
+        if (mRunning) {
+            mListener.onFrameTime(frameTimeNanos);
+        }
+    }
+}
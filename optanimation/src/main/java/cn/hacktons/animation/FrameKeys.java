@@ -0,0 +1,51 @@
+package cn.hacktons.animation;
+
+import java.util.HashMap;
+
+/**
+ * Allocates frame keys for sources which are not keyed by resource id. Resource ids are
+ * positive, so allocated keys are negative and never collide with them.
+ */
+final class FrameKeys {
+    private static int sNext = -1;
+    /**
+     * keys of frames named by path, so sources of the same file share cached frames
+     */
+    private static final HashMap<String, Integer> sInterned = new HashMap<>();
+
+    private FrameKeys() {
+    }
+
+    /**
+     * @return the first of {@code count} consecutive keys, counting up
+     */
+    static synchronized int allocate(int count) {
+        if (count < 0 || (long) sNext - count < Integer.MIN_VALUE) {
+            throw new IllegalStateException("frame keys exhausted");
+        }
+        sNext -= count;
+        return sNext + 1;
+    }
+
+    /**
+     * @param name identifies the image, such as an asset path
+     * @return the same key for the same name
+     */
+    static synchronized int intern(String name) {
+        return intern(name, 1);
+    }
+
+    /**
+     * @param name  identifies a set of images, such as a container file
+     * @param count number of images in the set
+     * @return the first of {@code count} keys, the same for the same name
+     */
+    static synchronized int intern(String name, int count) {
+        Integer key = sInterned.get(name);
+        if (key == null) {
+            key = allocate(count);
+            sInterned.put(name, key);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,208 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+/**
+ * Frame cache of a single {@link LazyAnimationDrawable}. Entries are measured by bitmap
+ * allocation bytes, and the byte budget is granted by {@link CacheRegistry} from the size the
+ * animation asked for. Evicted frames are recycled by the shared {@link BitmapPool}, or kept by
+ * the shared {@link ResurrectionCache} if the pool is full.
+ * <p>
+ * The frame on screen is never recycled since decoding into it would show a torn frame, and it's
+ * not resurrected either as another animation could recycle it. Neither is the frame decoded to be
+ * shown next, from the moment it's cached until it's drawn.
+ * <p>
+ * All frames of a partition are decoded at the same sample size and config, so the cache is keyed
+ * by (resId, sampleSize, config) as a whole: changing either drops every cached frame. The shared
+ * tiers are keyed by {@link #sharedKey(int, int, Bitmap.Config)}.
+ */
+class FramePartition extends IntKeyFrameCache<Bitmap> {
+
+    private int mRequestedCount = 2;
+    private long mRequestedBytes;
+    private volatile int mFrameBytes;
+    private volatile int mSampleSize = 1;
+    private volatile Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+    /**
+     * the frame drawn by the owner drawable
+     */
+    private volatile Bitmap mDisplayed;
+    /**
+     * the frame about to be drawn, and the display sequence of its request
+     */
+    private volatile Bitmap mPending;
+    private int mPendingSeq;
+
+    FramePartition() {
+        super(1);
+    }
+
+    /**
+     * ask for room of {@code count} frames, the byte size is known once a frame is decoded
+     */
+    void setRequestedCount(int count) {
+        mRequestedCount = count;
+        mRequestedBytes = 0;
+        CacheRegistry.getInstance().update(this);
+    }
+
+    void setRequestedBytes(long bytes) {
+        mRequestedBytes = bytes;
+        CacheRegistry.getInstance().update(this);
+    }
+
+    /**
+     * @param bytes allocation bytes of a decoded frame
+     */
+    void setFrameBytes(int bytes) {
+        if (mFrameBytes != bytes) {
+            mFrameBytes = bytes;
+            CacheRegistry.getInstance().update(this);
+        }
+    }
+
+    int getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    /**
+     * Switch the sample size and config frames are decoded with, frames decoded with the old ones
+     * are evicted
+     *
+     * @return true if anything changed
+     */
+    synchronized boolean setDecodeOptions(int sampleSize, @NonNull Bitmap.Config config) {
+        if (mSampleSize == sampleSize && mConfig == config) {
+            return false;
+        }
+        // evict first, so the old frames go to the shared tiers under their own key
+        evictAll();
+        mSampleSize = sampleSize;
+        mConfig = config;
+        return true;
+    }
+
+    int getSampleSize() {
+        return mSampleSize;
+    }
+
+    Bitmap.Config getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * Cache a frame unless the decode options changed while it was decoding
+     *
+     * @param show true if the frame is to be shown, it's then kept out of the pool until drawn
+     * @param seq  display sequence of the request showing the frame
+     * @return false if the frame was decoded with other options
+     */
+    synchronized boolean putDecoded(int key, Bitmap bitmap, int sampleSize, Bitmap.Config
+        config, boolean show, int seq) {
+        if (sampleSize != mSampleSize || config != mConfig) {
+            return false;
+        }
+        if (show) {
+            setPending(bitmap, seq);
+        }
+        put(key, bitmap);
+        return true;
+    }
+
+    /**
+     * Get a cached frame to be shown, it's kept out of the pool until drawn
+     *
+     * @param seq display sequence of the request showing the frame
+     */
+    synchronized Bitmap getPending(int key, int seq) {
+        Bitmap bitmap = get(key);
+        if (bitmap != null) {
+            setPending(bitmap, seq);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Get a cached frame and draw it from now on, so it can't be evicted into the pool meanwhile
+     */
+    synchronized Bitmap getDisplayed(int key) {
+        Bitmap bitmap = get(key);
+        if (bitmap != null) {
+            setDisplayed(bitmap);
+        }
+        return bitmap;
+    }
+
+    private void setPending(Bitmap bitmap, int seq) {
+        // a request superseded by the pending one must not take its place
+        if (mPending == null || seq - mPendingSeq > 0) {
+            mPending = bitmap;
+            mPendingSeq = seq;
+        }
+    }
+
+    /**
+     * the frame is no longer about to be shown, such as when it was superseded
+     */
+    synchronized void releasePending(Bitmap bitmap) {
+        if (mPending == bitmap) {
+            mPending = null;
+        }
+    }
+
+    /**
+     * @return key of a frame in the tiers shared by all animations
+     */
+    static long sharedKey(int key, int sampleSize, Bitmap.Config config) {
+        long options = (long) sampleSize << 4 | config.ordinal();
+        return options << 32 | (key & 0xffffffffL);
+    }
+
+    synchronized void setDisplayed(Bitmap bitmap) {
+        mDisplayed = bitmap;
+        if (mPending == bitmap) {
+            mPending = null;
+        }
+    }
+
+    /**
+     * @return bytes asked for, or {@link Long#MAX_VALUE} if the frame size is not known yet
+     */
+    long requestedBytes() {
+        if (mRequestedBytes > 0) {
+            return mRequestedBytes;
+        }
+        int frameBytes = mFrameBytes;
+        return frameBytes > 0 ? (long) frameBytes * mRequestedCount : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return true if another frame won't fit without eviction
+     */
+    boolean isFull() {
+        return size() + mFrameBytes > maxSize();
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, int key, Bitmap oldValue, Bitmap newValue) {
+        if (evicted && oldValue != mDisplayed && oldValue != mPending) {
+            CacheRegistry registry = CacheRegistry.getInstance();
+            if (!registry.getBitmapPool().put(oldValue)) {
+                registry.getResurrectionCache().put(sharedKey(key, mSampleSize, mConfig),
+                    oldValue);
+            }
+        }
+    }
+
+    @Override
+    protected Bitmap create(int key) {
+        return CacheRegistry.getInstance().getResurrectionCache().take(sharedKey(key, mSampleSize,
+            mConfig));
+    }
+
+    @Override
+    protected int sizeOf(int key, Bitmap value) {
+        return BitmapUtil.getAllocationByteCount(value);
+    }
+}
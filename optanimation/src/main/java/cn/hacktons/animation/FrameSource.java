@@ -0,0 +1,52 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.io.IOException;
+
+/**
+ * Where the frames of a {@link LazyAnimationDrawable} are decoded from, such as drawable
+ * resources ({@link ResourceFrameSource}) or a sprite sheet ({@link AtlasFrameSource}).
+ * <p>
+ * Frames are cached by key, frames of equal key must decode to the same image, even across
+ * sources. Decoding happens on decode threads, a source shared by several animations may be
+ * called concurrently.
+ */
+public interface FrameSource {
+
+    /**
+     * @return number of frames
+     */
+    int getFrameCount();
+
+    /**
+     * @return key of the frame in the frame caches, never {@link IntKeyFrameCache#NO_KEY}
+     */
+    int getFrameKey(int index);
+
+    /**
+     * Read the size and mime type of a frame without decoding it
+     *
+     * @param options out fields are filled, as with {@code inJustDecodeBounds}
+     */
+    @WorkerThread
+    void decodeBounds(int index, @NonNull BitmapFactory.Options options) throws IOException;
+
+    /**
+     * @param options decode options, such as {@code inBitmap}, {@code inSampleSize} and
+     *                {@code inPreferredConfig}
+     * @return decoded frame, or null if the frame can't be decoded
+     */
+    @WorkerThread
+    @Nullable
+    Bitmap decode(int index, @NonNull BitmapFactory.Options options) throws IOException;
+
+    /**
+     * Release what's kept open for decoding, it's opened again when the next frame is decoded
+     */
+    void close();
+}
@@ -0,0 +1,635 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ * Copyright (C) 2017 me@avenwu.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.hacktons.animation;
+
+/**
+ * An int-keyed twin of {@link LifoCache}, used as the frame cache so that looking up a frame by
+ * its resource id neither boxes the key nor allocates a map entry.
+ *
+ * <p>Keys live in an open-addressing table with linear probing and backward-shift deletion, the
+ * entries themselves are stored in parallel arrays linked from least recently used (head) to most
+ * recently used (tail). Once the arrays have grown to hold {@link #maxSize()} entries, {@link #get},
+ * {@link #put}, {@link #remove} and evictions do not allocate.
+ *
+ * <p>Like {@link LifoCache} the most recently used entry is evicted first, unless an
+ * {@link EvictionPolicy} is set to choose the victim.
+ */
+public class IntKeyFrameCache<V> {
+    /**
+     * returned by {@link #lastKey(int)} if there is no such entry; 0 is never a valid resource id
+     */
+    public static final int NO_KEY = 0;
+
+    private static final int NIL = -1;
+    private static final int INITIAL_CAPACITY = 8;
+
+    /** entry index + 1 for each slot, 0 if the slot is empty */
+    private int[] slots;
+    private int[] keys;
+    private Object[] values;
+    private int[] sizes;
+    private int[] prev;
+    private int[] next;
+    /** least recently used entry */
+    private int head = NIL;
+    /** most recently used entry */
+    private int tail = NIL;
+    /** unused entries, linked by {@link #next} */
+    private int free = NIL;
+    /** number of entries ever allocated from the entry arrays */
+    private int used;
+    private int count;
+
+    /** Size of this cache in units. Not necessarily the number of elements. */
+    private int size;
+    private int maxSize;
+    private EvictionPolicy evictionPolicy;
+
+    private int putCount;
+    private int createCount;
+    private int evictionCount;
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public IntKeyFrameCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(int maxSize) {
+        if (maxSize == this.maxSize) {
+            return;
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Sets the policy choosing which entry is evicted, or null to evict the most recently used
+     * entry.
+     */
+    public synchronized void setEvictionPolicy(EvictionPolicy policy) {
+        this.evictionPolicy = policy;
+    }
+
+    public synchronized EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. If a value was returned, it is moved to the
+     * head of the queue. This returns null if a value is not cached and cannot
+     * be created.
+     */
+    @SuppressWarnings("unchecked")
+    public final V get(int key) {
+        V mapValue;
+        synchronized (this) {
+            int entry = indexOf(key);
+            if (entry != NIL) {
+                moveToTail(entry);
+                hitCount++;
+                return (V) values[entry];
+            }
+            missCount++;
+        }
+
+        /*
+         * Attempt to create a value. This may take a long time, and the map
+         * may be different when create() returns. If a conflicting value was
+         * added to the map while create() was working, we leave that value in
+         * the map and release the created value.
+         */
+
+        V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            createCount++;
+            int entry = indexOf(key);
+
+            if (entry != NIL) {
+                // There was a conflict so keep the value already in the map
+                mapValue = (V) values[entry];
+                moveToTail(entry);
+            } else {
+                mapValue = null;
+                int createdSize = safeSizeOf(key, createdValue);
+                linkLast(key, createdValue, createdSize);
+                size += createdSize;
+            }
+        }
+
+        if (mapValue != null) {
+            entryRemoved(false, key, createdValue, mapValue);
+            return mapValue;
+        } else {
+            trimToSize(maxSize);
+            return createdValue;
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is moved to the head of
+     * the queue.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    @SuppressWarnings("unchecked")
+    public final V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+
+        V previous;
+        synchronized (this) {
+            putCount++;
+            int valueSize = safeSizeOf(key, value);
+            size += valueSize;
+            int entry = indexOf(key);
+            if (entry != NIL) {
+                previous = (V) values[entry];
+                size -= sizes[entry];
+                values[entry] = value;
+                sizes[entry] = valueSize;
+                moveToTail(entry);
+            } else {
+                previous = null;
+                linkLast(key, value, valueSize);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+
+        trimToSize(maxSize);
+        return previous;
+    }
+
+    /**
+     * Remove the entries chosen by the eviction policy, the most recently used
+     * ones by default, until the total of remaining entries is at or below the
+     * requested size.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *            to evict even 0-sized elements.
+     */
+    @SuppressWarnings("unchecked")
+    public void trimToSize(int maxSize) {
+        // next step of the walk of an ordered policy, which goes on from one victim to the next
+        int step = 0;
+        boolean unusedEvicted = false;
+        while (true) {
+            int key;
+            V value;
+            synchronized (this) {
+                if (size < 0 || (count == 0 && size != 0)) {
+                    throw new IllegalStateException(getClass().getName()
+                            + ".sizeOf() is reporting inconsistent results!");
+                }
+
+                if (size <= maxSize || count == 0) {
+                    break;
+                }
+
+                int toEvict = NIL;
+                if (maxSize < 0) {
+                    // evicting all, in any order
+                    toEvict = tail;
+                } else if (evictionPolicy instanceof OrderedEvictionPolicy) {
+                    OrderedEvictionPolicy policy = (OrderedEvictionPolicy) evictionPolicy;
+                    if (!unusedEvicted) {
+                        // keys never used again, which the walk may not know, go first
+                        int candidate = victim();
+                        if (policy.priority(keys[candidate]) == Integer.MAX_VALUE) {
+                            toEvict = candidate;
+                        } else {
+                            unusedEvicted = true;
+                        }
+                    }
+                    int steps = policy.candidateCount();
+                    while (toEvict == NIL && step < steps) {
+                        int candidate = policy.candidateAt(step++);
+                        if (candidate != NO_KEY) {
+                            toEvict = indexOf(candidate);
+                        }
+                    }
+                }
+                if (toEvict == NIL) {
+                    toEvict = victim();
+                }
+                key = keys[toEvict];
+                value = (V) values[toEvict];
+                size -= sizes[toEvict];
+                removeSlot(key);
+                unlink(toEvict);
+                evictionCount++;
+            }
+
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    /**
+     * Returns the key of the {@code index}-th most recently used entry, 1 for the most recently
+     * used one, or {@link #NO_KEY} if there is no such entry.
+     */
+    public synchronized int lastKey(int index) {
+        if (index <= 0 || index > count) {
+            return NO_KEY;
+        }
+        int entry = tail;
+        for (int i = 1; i < index; i++) {
+            entry = prev[entry];
+        }
+        return keys[entry];
+    }
+
+    /**
+     * Returns the key which would be evicted next, or {@link #NO_KEY} if the cache is empty.
+     */
+    public synchronized int victimKey() {
+        return count == 0 ? NO_KEY : keys[victim()];
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    @SuppressWarnings("unchecked")
+    public final V remove(int key) {
+        V previous;
+        synchronized (this) {
+            int entry = indexOf(key);
+            if (entry != NIL) {
+                previous = (V) values[entry];
+                size -= sizes[entry];
+                removeSlot(key);
+                unlink(entry);
+            } else {
+                previous = null;
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+
+        return previous;
+    }
+
+    /**
+     * Called for entries that have been evicted or removed. This method is
+     * invoked when a value is evicted to make space, removed by a call to
+     * {@link #remove}, or replaced by a call to {@link #put}. The default
+     * implementation does nothing.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * @param evicted true if the entry is being removed to make space, false
+     *     if the removal was caused by a {@link #put} or {@link #remove}.
+     * @param newValue the new value for {@code key}, if it exists. If non-null,
+     *     this removal was caused by a {@link #put}. Otherwise it was caused by
+     *     an eviction or a {@link #remove}.
+     */
+    protected void entryRemoved(boolean evicted, int key, V oldValue, V newValue) {}
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key.
+     * Returns the computed value or null if no value can be computed. The
+     * default implementation returns null.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * <p>If a value for {@code key} exists in the cache when this method
+     * returns, the created value will be released with {@link #entryRemoved}
+     * and discarded.
+     */
+    protected V create(int key) {
+        return null;
+    }
+
+    private int safeSizeOf(int key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units.  The default implementation returns 1 so that size
+     * is the number of entries and max size is the maximum number of entries.
+     *
+     * <p>The size is computed once when the entry is added to the cache.
+     */
+    protected int sizeOf(int key, V value) {
+        return 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    /**
+     * Returns true if {@code key} is cached, without touching the access order or the stats.
+     */
+    public synchronized final boolean contains(int key) {
+        return indexOf(key) != NIL;
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    public synchronized final int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     */
+    public synchronized final int count() {
+        return count;
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the maximum
+     * number of entries in the cache. For all other caches, this returns the
+     * maximum sum of the sizes of the entries in this cache.
+     */
+    public synchronized final int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value that was
+     * already present in the cache.
+     */
+    public synchronized final int hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null or required a new
+     * value to be created.
+     */
+    public synchronized final int missCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of times {@link #create(int)} returned a value.
+     */
+    public synchronized final int createCount() {
+        return createCount;
+    }
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public synchronized final int putCount() {
+        return putCount;
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public synchronized final int evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the cached keys, ordered from least recently accessed to most
+     * recently accessed.
+     */
+    public synchronized final int[] keySnapshot() {
+        int[] result = new int[count];
+        int i = 0;
+        for (int entry = head; entry != NIL; entry = next[entry]) {
+            result[i++] = keys[entry];
+        }
+        return result;
+    }
+
+    @Override public synchronized final String toString() {
+        int accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("IntKeyFrameCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, hitCount, missCount, hitPercent);
+    }
+
+    /**
+     * @return the entry to evict, the cache must not be empty
+     */
+    private int victim() {
+        EvictionPolicy policy = evictionPolicy;
+        if (policy == null) {
+            return tail;
+        }
+        int victim = tail;
+        int priority = policy.priority(keys[tail]);
+        for (int entry = prev[tail]; entry != NIL; entry = prev[entry]) {
+            int candidate = policy.priority(keys[entry]);
+            if (candidate > priority) {
+                priority = candidate;
+                victim = entry;
+            }
+        }
+        return victim;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        sizes = new int[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        slots = new int[capacity * 2];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the entry index of {@code key}, or {@link #NIL}
+     */
+    private int indexOf(int key) {
+        int mask = slots.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot] - 1;
+            if (entry == NIL) {
+                return NIL;
+            }
+            if (keys[entry] == key) {
+                return entry;
+            }
+        }
+    }
+
+    private void insertSlot(int key, int entry) {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = entry + 1;
+    }
+
+    /**
+     * Clears the slot of {@code key} and shifts the following cluster back, so lookups never
+     * have to skip over tombstones.
+     */
+    private void removeSlot(int key) {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slots[slot] - 1] != key) {
+            slot = (slot + 1) & mask;
+        }
+        int hole = slot;
+        for (slot = (hole + 1) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int home = hash(keys[slots[slot] - 1]) & mask;
+            // move the entry back if its home position is not in (hole, slot]
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                slots[hole] = slots[slot];
+                hole = slot;
+            }
+        }
+        slots[hole] = 0;
+    }
+
+    /**
+     * Doubles the entry arrays and rehashes, the only place where this cache allocates.
+     */
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldSizes = sizes;
+        int[] oldPrev = prev;
+        int[] oldNext = next;
+        allocate(oldKeys.length * 2);
+        System.arraycopy(oldKeys, 0, keys, 0, used);
+        System.arraycopy(oldValues, 0, values, 0, used);
+        System.arraycopy(oldSizes, 0, sizes, 0, used);
+        System.arraycopy(oldPrev, 0, prev, 0, used);
+        System.arraycopy(oldNext, 0, next, 0, used);
+        for (int entry = head; entry != NIL; entry = next[entry]) {
+            insertSlot(keys[entry], entry);
+        }
+    }
+
+    /**
+     * Appends a new entry as the most recently used one.
+     */
+    private void linkLast(int key, V value, int valueSize) {
+        int entry;
+        if (free != NIL) {
+            entry = free;
+            free = next[entry];
+        } else {
+            if (used == keys.length) {
+                grow();
+            }
+            entry = used++;
+        }
+        keys[entry] = key;
+        values[entry] = value;
+        sizes[entry] = valueSize;
+        prev[entry] = tail;
+        next[entry] = NIL;
+        if (tail != NIL) {
+            next[tail] = entry;
+        } else {
+            head = entry;
+        }
+        tail = entry;
+        count++;
+        insertSlot(key, entry);
+    }
+
+    private void moveToTail(int entry) {
+        if (entry == tail) {
+            return;
+        }
+        // entry is not the tail, so next[entry] is never NIL
+        if (prev[entry] != NIL) {
+            next[prev[entry]] = next[entry];
+        } else {
+            head = next[entry];
+        }
+        prev[next[entry]] = prev[entry];
+        prev[entry] = tail;
+        next[entry] = NIL;
+        next[tail] = entry;
+        tail = entry;
+    }
+
+    /**
+     * Unlinks an entry whose slot has already been removed, and puts it on the free list.
+     */
+    private void unlink(int entry) {
+        if (prev[entry] != NIL) {
+            next[prev[entry]] = next[entry];
+        } else {
+            head = next[entry];
+        }
+        if (next[entry] != NIL) {
+            prev[next[entry]] = prev[entry];
+        } else {
+            tail = prev[entry];
+        }
+        values[entry] = null;
+        prev[entry] = NIL;
+        next[entry] = free;
+        free = entry;
+        count--;
+    }
+}
@@ -0,0 +1,25 @@
+package cn.hacktons.animation;
+
+/**
+ * What a {@link LazyAnimationDrawable} does when frames are decoded slower than they are due.
+ * The frame due is worked out from the wall clock time since the animation started.
+ */
+public enum LateFramePolicy {
+    /**
+     * show every frame: the frame on screen stays up while the next one is decoding, then the
+     * frames behind are shown one a vsync until caught up. The timeline is never pushed back, so
+     * the animation stays in sync with others started at the same time; the default
+     */
+    HOLD,
+    /**
+     * jump to the frame due, frames passed meanwhile are dropped without being decoded, so the
+     * animation keeps its duration
+     */
+    SKIP_TO_CURRENT,
+    /**
+     * jump to the frame due, but drop at most a given number of frames in a row; beyond that the
+     * timeline is pushed back, so every part of the animation is still seen, but it drifts from
+     * other timelines started at the same time
+     */
+    SKIP_WITH_MAX_DROP
+}
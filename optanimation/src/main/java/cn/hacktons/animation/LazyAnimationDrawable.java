@@ -8,19 +8,19 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.drawable.Animatable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Build;
-import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.SparseArray;
 import android.util.TypedValue;
 import android.view.View;
 import android.widget.ImageView;
@@ -30,8 +30,7 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.lang.ref.SoftReference;
-import java.lang.ref.WeakReference;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * LazyAnimationDrawable is similar to AnimationDrawable; It's design for frame animation which
@@ -41,7 +40,8 @@ import java.util.ArrayList;
  * <h2>{@link LazyAnimationDrawable}</h2>
  * <ul>
  *     <li>Load frame bitmap dynamically to avoid memory overhead</li>
- *     <li>Bitmap cache support, all frame bitmap are cache in the global {@link LifoCache}</li>
+ *     <li>Bitmap cache support, each drawable caches its frames in an {@link IntKeyFrameCache}
+ *     partition, all partitions share the global budget of {@link CacheRegistry}</li>
  *     <li>Traditional XML definition is supported through {@link MockFrameImageView}</li>
  * </ul>
  *
@@ -53,46 +53,126 @@ import java.util.ArrayList;
  *
  */
 public class LazyAnimationDrawable extends Drawable implements Runnable, Animatable {
+    private static final String TAG = "LazyAnimationDrawable";
 
-    private ArrayList<AnimationFrame> mFrames = new ArrayList<AnimationFrame>();
+    /**
+     * key and duration of each frame, the first {@link #mFrameCount} entries are used
+     */
+    private int[] mFrameKeys = new int[0];
+    private int[] mDurations = new int[0];
+    private int mFrameCount;
     private int mCurFrame = 0;
     private boolean mRunning;
     private boolean mAnimating;
+    private boolean mPaused;
+    /**
+     * resumed while invisible, goes on from the frame paused on once visible
+     */
+    private boolean mResumePending;
+    /**
+     * milliseconds into {@link #mCurFrame} when paused
+     */
+    private long mPausedOffset;
     private boolean mOneShot;
-    private Resources mResource;
+    private FrameSource mSource;
+    /**
+     * picks the frame due on each vsync, rebuilt when frames change
+     */
+    private final FrameClock mClock = new FrameClock(new FrameClock.Listener() {
+        @Override
+        public void onFrameTime(long frameTimeNanos) {
+            tick(frameTimeNanos);
+        }
+    });
+    private boolean mTimelineChanged = true;
+    private LateFramePolicy mLatePolicy = LateFramePolicy.HOLD;
+    private int mMaxDroppedFrames = 2;
+    private OnFrameDropListener mDropListener;
+    /**
+     * true while the selected frame is decoding, only touched on main thread
+     */
+    private boolean mFramePending;
     /**
      * we use the first bitmap's width & height
      */
+    private int mIntrinsicWidth = -1;
+    private int mIntrinsicHeight = -1;
+    /**
+     * size of frames decoded at current sample size
+     */
     private int mBitmapWidth;
     private int mBitmapHeight;
+    private Bitmap.Config mBitmapConfig;
+    /**
+     * config to decode frames with, null to pick one from the first frame
+     */
+    private Bitmap.Config mPreferredConfig = Bitmap.Config.ARGB_8888;
+    private Bitmap.Config mAutoConfig;
+    /**
+     * size frames are drawn at on screen, 0 to follow the host view
+     */
+    private int mTargetWidth;
+    private int mTargetHeight;
+    private int mHostWidth;
+    private int mHostHeight;
+    private final float[] mMatrixValues = new float[9];
+    private final Rect mDrawRect = new Rect();
 
     private Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
     private Bitmap mCurBitmap;
     private SoftReference<View> mViewRef;
+    /**
+     * evict the cached frame which will be shown furthest in the future, built lazily from frames
+     */
+    private NextUseDistancePolicy mEvictionPolicy;
+    private DecodeScheduler mScheduler;
+    /**
+     * number of upcoming frames to decode ahead of time
+     */
+    private int mPrefetch;
+    /**
+     * frames with a prefetch request in flight, only touched on main thread
+     */
+    private boolean[] mPrefetching = new boolean[0];
+    /**
+     * decode requests ready for reuse, only touched on main thread
+     */
+    private FrameDecodeRequest mFreeRequests;
+    /**
+     * bumped when pending decodes are no longer wanted, such as stop or invisible
+     */
+    private volatile int mGeneration;
+    /**
+     * sequence of the latest frame selected to be shown
+     */
+    private volatile int mDisplaySeq;
+    /**
+     * bumped when frames are skipped, prefetches of earlier skips are dropped
+     */
+    private volatile int mSkipSeq;
 
-    private static int maxCacheSize;
     /**
-     * strong reference for cache
+     * the bitmap patched frame by frame if frames come from a {@link DeltaFrameSource}
      */
-    private static LifoCache<Integer, Bitmap> sharedCache = new LifoCache<Integer, Bitmap>(4) {
-        /**
-         * avoid permanent bitmap cache
-         */
-        SparseArray<WeakReference<Bitmap>> refs = new SparseArray<>(4);
+    private DeltaCompositor mDelta;
+    private DeltaDecodeRequest mFreeDeltaRequests;
+    private final RectF mDirtyRect = new RectF();
 
-        @Override
-        protected void entryRemoved(boolean evicted, Integer key, Bitmap oldValue, Bitmap newValue) {
-            if (evicted) {
-                refs.put(key, new WeakReference<Bitmap>(oldValue));
-            }
-        }
+    /**
+     * streaming mode: only a front and a back bitmap are kept, nothing is cached
+     */
+    private boolean mStreaming;
+    private DoubleBuffer mStream;
+    /**
+     * frame due on screen but not decoded yet in streaming mode, -1 if none
+     */
+    private int mStreamWanted = -1;
+    private StreamDecodeRequest mFreeStreamRequests;
 
-        @Override
-        protected Bitmap create(Integer key) {
-            WeakReference<Bitmap> reference = refs.get(key);
-            return reference != null ? reference.get() : super.create(key);
-        }
-    };
+    /**
+     * strong reference for cache, sized by {@link CacheRegistry}
+     */
+    private final FramePartition mCache = new FramePartition();
     private static int[] AnimationDrawable = {
         android.R.attr.visible,
         android.R.attr.oneshot
@@ -108,13 +188,24 @@ public class LazyAnimationDrawable extends Drawable implements Runnable, Animata
     private static final int AnimationDrawableItem_duration = 0;
     private static final int AnimationDrawableItem_drawable = 1;
 
+    /**
+     * Notified of frames dropped by the {@link LateFramePolicy}
+     */
+    public interface OnFrameDropListener {
+        /**
+         * @param frame index of the frame which was due but not shown
+         */
+        void onFrameDropped(@NonNull LazyAnimationDrawable drawable, int frame);
+    }
+
     LazyAnimationDrawable() {
         mPaint.setAntiAlias(true);
         mPaint.setDither(true);
+        mPaint.setFilterBitmap(true);
     }
 
     int getFrameCount() {
-        return mFrames.size();
+        return mFrameCount;
     }
 
     /**
@@ -123,23 +214,114 @@ public class LazyAnimationDrawable extends Drawable implements Runnable, Animata
      * @param maxCachedBitmapCount
      */
     void setCacheSize(int maxCachedBitmapCount) {
-        Log.i("LifoCache", "max cache count = " + maxCachedBitmapCount);
-        maxCacheSize = maxCachedBitmapCount < 2 ? 2 : maxCachedBitmapCount;
-        sharedCache.resize(maxCacheSize);
+        Log.i(TAG, "max cache count = " + maxCachedBitmapCount);
+        mCache.setRequestedCount(maxCachedBitmapCount < 2 ? 2 : maxCachedBitmapCount);
+    }
+
+    /**
+     * limit the cache by bitmap allocation bytes instead of bitmap count
+     *
+     * @param maxCachedBytes
+     */
+    void setCacheBytes(long maxCachedBytes) {
+        Log.i(TAG, "max cache bytes = " + maxCachedBytes);
+        mCache.setRequestedBytes(maxCachedBytes);
+    }
+
+    /**
+     * Decode frames for a fixed size instead of the size they are drawn at on the host view
+     *
+     * @param width  width in pixels, 0 to follow the host view
+     * @param height height in pixels, 0 to follow the host view
+     */
+    void setTargetSize(int width, int height) {
+        mTargetWidth = width;
+        mTargetHeight = height;
+    }
+
+    /**
+     * @param config config to decode frames with, null to use {@link Bitmap.Config#RGB_565} if
+     *               the first frame is a jpeg or has no alpha
+     */
+    void setBitmapConfig(@Nullable Bitmap.Config config) {
+        mPreferredConfig = config;
+        mAutoConfig = null;
+    }
+
+    /**
+     * @param streaming true to keep just the frame on screen and the next one, instead of caching
+     *                  frames
+     */
+    void setStreaming(boolean streaming) {
+        mStreaming = streaming;
+    }
+
+    /**
+     * @param policy           what to do when frames are decoded slower than they are due
+     * @param maxDroppedFrames frames dropped in a row at most, for
+     *                         {@link LateFramePolicy#SKIP_WITH_MAX_DROP}
+     */
+    void setLateFramePolicy(@NonNull LateFramePolicy policy, int maxDroppedFrames) {
+        mLatePolicy = policy;
+        mMaxDroppedFrames = Math.max(0, maxDroppedFrames);
+    }
+
+    /**
+     * @param listener notified on main thread of every frame dropped, null to stop
+     */
+    public void setOnFrameDropListener(@Nullable OnFrameDropListener listener) {
+        mDropListener = listener;
     }
 
     void attachTo(@NonNull View imageView) {
         mViewRef = new SoftReference<View>(imageView);
-        mResource = imageView.getResources();
         setCallback(imageView);
         inflateFirst(imageView);
     }
 
+    /**
+     * @return milliseconds of all frames
+     */
+    public long getTotalDuration() {
+        return obtainClock().getTotalDuration();
+    }
+
+    /**
+     * Show the frame due {@code millis} after the start of the animation, a running animation
+     * goes on from there
+     *
+     * @param millis time from the start of the first frame, wrapped if the animation loops
+     */
+    public void seekTo(long millis) {
+        if (mFrameCount == 0) {
+            return;
+        }
+        FrameClock clock = obtainClock();
+        int frame = clock.frameAtTime(millis, !mOneShot);
+        if (frame != mCurFrame || mCurBitmap == null) {
+            mCurFrame = frame;
+            selectFrame(frame);
+        }
+        if (mRunning) {
+            clock.startAt(millis);
+        } else {
+            // a paused animation resumes from the start of the frame
+            mPausedOffset = 0;
+        }
+    }
+
     /**
      * Starts the animation
      */
     public void start() {
+        cancelPendingDecodes();
         mAnimating = true;
+        mPaused = false;
+        mResumePending = false;
+        mCache.setEvictionPolicy(obtainEvictionPolicy());
+        if (mDelta == null && mStream == null) {
+            CacheRegistry.getInstance().activate(mCache);
+        }
         if (!isRunning()) {
             setFrame(0, false, true);
         }
@@ -150,24 +332,113 @@ public class LazyAnimationDrawable extends Drawable implements Runnable, Animata
      */
     public void stop() {
         mAnimating = false;
-        sharedCache.evictAll();
+        mPaused = false;
+        mResumePending = false;
+        cancelPendingDecodes();
+        mCache.evictAll();
+        CacheRegistry.getInstance().deactivate(mCache);
+        if (mStream != null) {
+            mStream.releaseBack();
+        }
+        if (mSource != null) {
+            mSource.close();
+        }
         if (isRunning()) {
             unscheduleSelf(this);
         }
+        // the next start plays from the first frame, other pauses keep the playhead
+        mCurFrame = 0;
+    }
+
+    /**
+     * Pause the animation on the frame shown. Unlike {@link #stop()}, cached frames are kept and
+     * {@link #resume()} goes on from the same frame without decoding again
+     */
+    public void pause() {
+        if (!mAnimating || mPaused) {
+            return;
+        }
+        mPaused = true;
+        if (mResumePending) {
+            // resumed while invisible, so still where it was paused
+            mResumePending = false;
+            return;
+        }
+        mPausedOffset = mClock.isRunning() ? mClock.offsetInFrame(mCurFrame, System.nanoTime(),
+            !mOneShot) : 0;
+        cancelPendingDecodes();
+        mRunning = false;
+        mClock.stop();
+    }
+
+    /**
+     * Resume a paused animation from the time it was paused at, or once visible if it's not
+     */
+    public void resume() {
+        if (!mPaused) {
+            return;
+        }
+        mPaused = false;
+        if (isVisible()) {
+            resumeFromPause();
+        } else {
+            mResumePending = true;
+        }
+    }
+
+    private void resumeFromPause() {
+        int frame = mCurFrame;
+        setFrame(frame, false, true);
+        if (mRunning) {
+            // the frame is shown for the rest of its duration only
+            mClock.startAt(mClock.startOf(frame) + mPausedOffset);
+        }
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * Stop the animation and give back all memory it holds, including the frame shown, such as
+     * when the screen is destroyed or memory is trimmed. Frames are decoded again on next start.
+     */
+    public void release() {
+        stop();
+        mCurBitmap = null;
+        mCache.setDisplayed(null);
+        if (mStream != null) {
+            mStream.setFront(null, -1);
+            mStream.releaseBack();
+        }
+        invalidateSelf();
     }
 
     @Override
     public void draw(@NonNull Canvas canvas) {
         Bitmap bitmap = mCurBitmap;
         if (bitmap != null) {
-            canvas.drawBitmap(bitmap, 0, 0, mPaint);
+            if (bitmap.getWidth() == mIntrinsicWidth && bitmap.getHeight() == mIntrinsicHeight) {
+                canvas.drawBitmap(bitmap, 0, 0, mPaint);
+            } else {
+                // downsampled frame, scale it back to the intrinsic size
+                canvas.drawBitmap(bitmap, null, mDrawRect, mPaint);
+            }
         }
     }
 
+    private void computeIntrinsicSize(Bitmap bitmap) {
+        mIntrinsicWidth = bitmap.getWidth();
+        mIntrinsicHeight = bitmap.getHeight();
+        mDrawRect.set(0, 0, mIntrinsicWidth, mIntrinsicHeight);
+    }
+
     private void computeBitmapSize(Bitmap bitmap) {
         if (bitmap != null) {
             mBitmapWidth = bitmap.getWidth();
             mBitmapHeight = bitmap.getHeight();
+            mBitmapConfig = bitmap.getConfig();
+            mCache.setFrameBytes(BitmapUtil.getAllocationByteCount(bitmap));
         } else {
             mBitmapWidth = mBitmapHeight = -1;
         }
@@ -175,24 +446,24 @@ public class LazyAnimationDrawable extends Drawable implements Runnable, Animata
 
     @Override
     public int getIntrinsicWidth() {
-        return mBitmapWidth;
+        return mIntrinsicWidth;
     }
 
     @Override
     public int getIntrinsicHeight() {
-        return mBitmapHeight;
+        return mIntrinsicHeight;
     }
 
     @Deprecated
     @Override
     public void setAlpha(int alpha) {
-        Log.e("LifoCache", "setAlpha not supported @" + getClass().getSimpleName());
+        Log.e(TAG, "setAlpha not supported @" + getClass().getSimpleName());
     }
 
     @Deprecated
     @Override
     public void setColorFilter(ColorFilter colorFilter) {
-        Log.e("LifoCache", "setColorFilter not supported @" + getClass().getSimpleName());
+        Log.e(TAG, "setColorFilter not supported @" + getClass().getSimpleName());
     }
 
     @Override
@@ -209,41 +480,141 @@ public class LazyAnimationDrawable extends Drawable implements Runnable, Animata
     public boolean setVisible(boolean visible, boolean restart) {
         final boolean changed = super.setVisible(visible, restart);
         if (visible) {
-            if (restart || changed) {
+            if (mPaused) {
+                if (changed && mCurBitmap == null) {
+                    selectFrame(mCurFrame);
+                }
+            } else if (mResumePending) {
+                mResumePending = false;
+                resumeFromPause();
+            } else if (restart || changed) {
                 boolean startFromZero = restart || !mRunning ||
-                    mCurFrame >= mFrames.size();
+                    mCurFrame >= mFrameCount;
                 setFrame(startFromZero ? 0 : mCurFrame, true, mAnimating);
             }
-        } else {
-            Log.i("LifoCache", "setVisible false: unscheduleSelf");
+        } else if (!mPaused && !mResumePending) {
+            Log.i(TAG, "setVisible false: unscheduleSelf");
+            cancelPendingDecodes();
             unscheduleSelf(this);
         }
         return changed;
     }
 
+    /**
+     * Show the frame due now, frames are otherwise shown on vsync
+     */
     @Override
     public void run() {
+        if (mClock.isRunning()) {
+            tick(System.nanoTime());
+        }
+    }
+
+    /**
+     * Show the frame due at vsync time, a one shot animation stops once its last frame is due
+     */
+    private void tick(long frameTimeNanos) {
         View view = mViewRef != null ? mViewRef.get() : null;
         boolean show = view != null && view.isShown();
-        if (show) {
-            nextFrame(false);
-        } else {
+        if (!show) {
             emptyFrame();
+            return;
+        }
+        final int numFrames = mFrameCount;
+        int due = mClock.frameAt(frameTimeNanos, !mOneShot);
+        int frame = due != mCurFrame ? catchUp(due) : due;
+        if (mOneShot && frame >= numFrames - 1) {
+            setFrame(numFrames - 1, true, false);
+            return;
+        }
+        if (frame != mCurFrame) {
+            mCurFrame = frame;
+            selectFrame(frame);
+        }
+        mClock.postNext();
+    }
+
+    /**
+     * Pick the frame to show when {@code due} is due, according to the late frame policy. Frames
+     * skipped over are reported dropped and never decoded.
+     */
+    private int catchUp(int due) {
+        final int numFrames = mFrameCount;
+        int cur = mCurFrame;
+        int distance = due >= cur ? due - cur : due + numFrames - cur;
+        int next;
+        switch (mLatePolicy) {
+            case HOLD:
+                if (isFramePending()) {
+                    // the frame shown stays up, the timeline goes on
+                    return cur;
+                }
+                // one frame a vsync until caught up with the timeline
+                return (cur + 1) % numFrames;
+            case SKIP_WITH_MAX_DROP:
+                if (distance - 1 > mMaxDroppedFrames) {
+                    next = (cur + mMaxDroppedFrames + 1) % numFrames;
+                    // the rest is caught up by pushing the timeline back
+                    mClock.start(next);
+                } else {
+                    next = due;
+                }
+                break;
+            default:
+                next = due;
+                break;
+        }
+        if (next != (cur + 1) % numFrames) {
+            // prefetches of skipped frames are dropped, the ones ahead are submitted again
+            mSkipSeq++;
+            Arrays.fill(mPrefetching, false);
+            for (int i = (cur + 1) % numFrames; i != next; i = (i + 1) % numFrames) {
+                onFrameDropped(i);
+            }
+        }
+        return next;
+    }
+
+    private boolean isFramePending() {
+        return mStream != null ? mStreamWanted >= 0 : mFramePending;
+    }
+
+    private void onFrameDropped(int frame) {
+        if (mDropListener != null) {
+            mDropListener.onFrameDropped(this, frame);
         }
     }
 
     private void inflateFirst(@NonNull View imageView) {
-        if (mFrames.size() > 0) {
-            AnimationFrame frame = mFrames.get(0);
+        if (mSource instanceof DeltaFrameSource) {
+            inflateKeyframe(imageView, (DeltaFrameSource) mSource);
+            return;
+        }
+        mStream = mStreaming ? new DoubleBuffer() : null;
+        if (mFrameCount > 0) {
+            int key = mFrameKeys[0];
+            // frames are decoded at full size until the drawn size is known
+            mCache.setDecodeOptions(1, resolveConfig());
+            mHostWidth = mHostHeight = 0;
             // decode first bitmap on UI thread
-            /*BitmapDecodeTask task = new BitmapDecodeTask(imageView);
-            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, frame.getResourceId());*/
-            Bitmap bitmap = sharedCache.get(frame.getResourceId());
+            Bitmap bitmap = mCache.get(key);
             if (bitmap == null) {
-                bitmap = BitmapFactory.decodeResource(mResource, frame.getResourceId(), null);
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inPreferredConfig = mCache.getConfig();
+                bitmap = decodeFrame(0, options);
+                if (bitmap != null && mPreferredConfig == null && mAutoConfig == null) {
+                    bitmap = resolveAutoConfig(bitmap);
+                }
+                if (bitmap != null && mStream == null) {
+                    mCache.put(key, bitmap);
+                }
+            }
+            if (bitmap != null && mStream != null) {
+                mStream.setFront(bitmap, 0);
+                mCurBitmap = bitmap;
             }
-            sharedCache.put(frame.getResourceId(), bitmap);
             if (bitmap != null) {
+                computeIntrinsicSize(bitmap);
                 computeBitmapSize(bitmap);
                 if (imageView instanceof ImageView) {
                     ((ImageView) imageView).setImageDrawable(LazyAnimationDrawable.this);
@@ -255,53 +626,201 @@ public class LazyAnimationDrawable extends Drawable implements Runnable, Animata
         }
     }
 
+    /**
+     * Delta mode: the keyframe becomes the bitmap all frames are composited onto
+     */
+    private void inflateKeyframe(@NonNull View imageView, @NonNull DeltaFrameSource source) {
+        mDelta = new DeltaCompositor(source);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inPreferredConfig = resolveConfig();
+        // decode keyframe on UI thread
+        Bitmap keyframe = source.decodeKeyframe(options);
+        if (keyframe != null && mPreferredConfig == null && mAutoConfig == null) {
+            keyframe = resolveAutoConfig(keyframe);
+        }
+        if (keyframe != null) {
+            mDelta.reset(keyframe);
+            mCurBitmap = mDelta.getComposite();
+            computeIntrinsicSize(mCurBitmap);
+            if (imageView instanceof ImageView) {
+                ((ImageView) imageView).setImageDrawable(LazyAnimationDrawable.this);
+            } else {
+                imageView.setBackground(LazyAnimationDrawable.this);
+            }
+        }
+        invalidateSelf();
+    }
+
+    /**
+     * @return config to decode frames with, jpeg frames are always opaque
+     */
+    private Bitmap.Config resolveConfig() {
+        if (mPreferredConfig != null) {
+            return mPreferredConfig;
+        }
+        if (mAutoConfig != null) {
+            return mAutoConfig;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        try {
+            mSource.decodeBounds(0, options);
+        } catch (IOException e) {
+            Log.w(TAG, "read frame bounds failed", e);
+        }
+        if ("image/jpeg".equals(options.outMimeType)) {
+            mAutoConfig = Bitmap.Config.RGB_565;
+            return mAutoConfig;
+        }
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * A png without alpha channel is decoded as opaque, so are the following frames
+     *
+     * @return the first frame in the picked config
+     */
+    private Bitmap resolveAutoConfig(@NonNull Bitmap first) {
+        if (first.hasAlpha()) {
+            mAutoConfig = Bitmap.Config.ARGB_8888;
+            return first;
+        }
+        mAutoConfig = Bitmap.Config.RGB_565;
+        mCache.setDecodeOptions(mCache.getSampleSize(), mAutoConfig);
+        Bitmap opaque = first.copy(mAutoConfig, false);
+        Log.i(TAG, "frames have no alpha, decode with " + mAutoConfig);
+        return opaque != null ? opaque : first;
+    }
+
+    /**
+     * @param scheduler scheduler to decode frames on, or null for the default one
+     */
+    void setDecodeScheduler(DecodeScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * @param count number of upcoming frames to decode in background
+     */
+    void setPrefetch(int count) {
+        mPrefetch = count;
+    }
+
     void oneShot(boolean oneShot) {
         mOneShot = oneShot;
+        mEvictionPolicy = null;
     }
 
     private void addFrame(int resId, int duration) {
-        mFrames.add(new AnimationFrame(resId, duration));
+        if (mFrameCount == mFrameKeys.length) {
+            int capacity = Math.max(8, mFrameCount * 2);
+            mFrameKeys = Arrays.copyOf(mFrameKeys, capacity);
+            mDurations = Arrays.copyOf(mDurations, capacity);
+        }
+        mFrameKeys[mFrameCount] = resId;
+        mDurations[mFrameCount] = duration;
+        mFrameCount++;
+        mEvictionPolicy = null;
+        mTimelineChanged = true;
     }
 
     /**
-     * add all frames of animation
-     *
-     * @param resIds   resource id of drawable
-     * @param duration milliseconds
+     * @return decoded frame, or null if it can't be read
+     */
+    private Bitmap decodeFrame(int index, BitmapFactory.Options options) {
+        try {
+            return mSource.decode(index, options);
+        } catch (IOException e) {
+            Log.w(TAG, "read frame " + index + " failed", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the clock, timed by the current frame durations
      */
-    void setFrames(int[] resIds, int duration) {
-        removeAllFrames();
-        for (int resId : resIds) {
-            mFrames.add(new AnimationFrame(resId, duration));
+    private FrameClock obtainClock() {
+        if (mTimelineChanged) {
+            mClock.setDurations(mDurations, mFrameCount);
+            mTimelineChanged = false;
         }
+        return mClock;
+    }
+
+    private NextUseDistancePolicy obtainEvictionPolicy() {
+        if (mEvictionPolicy == null) {
+            mEvictionPolicy = new NextUseDistancePolicy(Arrays.copyOf(mFrameKeys, mFrameCount),
+                !mOneShot);
+        }
+        return mEvictionPolicy;
     }
 
     /**
-     * clear all frames
+     * add all frames of animation
+     *
+     * @param source   frames to decode
+     * @param duration milliseconds
      */
-    private void removeAllFrames() {
-        mFrames.clear();
+    void setFrames(@NonNull FrameSource source, int duration) {
+        int[] durations = new int[source.getFrameCount()];
+        Arrays.fill(durations, duration);
+        setFrames(source, durations);
     }
 
-    private void nextFrame(boolean unschedule) {
-        int nextFrame = mCurFrame + 1;
-        final int numFrames = mFrames.size();
-        boolean oneShot = mOneShot;
-        final boolean isLastFrame = oneShot && nextFrame >= (numFrames - 1);
-        // loop
-        if (!oneShot && nextFrame >= numFrames) {
-            nextFrame = 0;
+    /**
+     * add all frames of animation
+     *
+     * @param source    frames to decode
+     * @param durations milliseconds of each frame
+     */
+    void setFrames(@NonNull FrameSource source, @NonNull int[] durations) {
+        int count = source.getFrameCount();
+        if (durations.length != count) {
+            throw new IllegalArgumentException(durations.length + " durations for " + count
+                + " frames");
         }
-        setFrame(nextFrame, unschedule, !isLastFrame);
+        mSource = source;
+        mFrameKeys = new int[count];
+        for (int i = 0; i < count; i++) {
+            mFrameKeys[i] = source.getFrameKey(i);
+        }
+        mDurations = durations.clone();
+        mFrameCount = count;
+        // frames of the previous source are never shown again
+        mCache.evictAll();
+        mEvictionPolicy = null;
+        mTimelineChanged = true;
+        mAutoConfig = null;
+        mDelta = null;
+        mStream = null;
+        mStreamWanted = -1;
     }
 
     private void emptyFrame() {
-        scheduleSelf(this, SystemClock.uptimeMillis() + mFrames.get(mCurFrame).getDuration());
+        // check again later, the timeline goes on meanwhile
+        mClock.postDelayed(mDurations[mCurFrame]);
+        cancelPendingDecodes();
+        if (mStream != null) {
+            mStream.releaseBack();
+        }
         evictAllCache();
     }
 
+    /**
+     * Drop queued decodes of this drawable, and discard the results of running ones
+     */
+    private void cancelPendingDecodes() {
+        mGeneration++;
+        mFramePending = false;
+        Arrays.fill(mPrefetching, false);
+        mStreamWanted = -1;
+        if (mStream != null) {
+            mStream.invalidateBack();
+        }
+    }
+
     private void setFrame(int frame, boolean unschedule, boolean animate) {
-        if (frame >= mFrames.size()) {
+        if (frame >= mFrameCount) {
             return;
         }
         mCurFrame = frame;
@@ -313,7 +832,7 @@ public class LazyAnimationDrawable extends Drawable implements Runnable, Animata
         if (animate) {
             mCurFrame = frame;
             mRunning = true;
-            scheduleSelf(this, SystemClock.uptimeMillis() + mFrames.get(frame).getDuration());
+            obtainClock().start(frame);
         }
     }
 
@@ -335,18 +854,269 @@ public class LazyAnimationDrawable extends Drawable implements Runnable, Animata
 
     @Override
     public void unscheduleSelf(Runnable what) {
-        mCurFrame = 0;
         mRunning = false;
+        mClock.stop();
         Callback callback = getCallback();
         if (callback != null) {
             callback.unscheduleDrawable(this, this);
         }
     }
 
+    private void showFrame(int idx, @NonNull Bitmap bitmap) {
+        if (bitmap.getWidth() != mBitmapWidth || bitmap.getHeight() != mBitmapHeight
+            || bitmap.getConfig() != mBitmapConfig) {
+            // first frame decoded with new options
+            computeBitmapSize(bitmap);
+        }
+        mCurBitmap = bitmap;
+        mCache.setDisplayed(bitmap);
+        if (mEvictionPolicy != null) {
+            mEvictionPolicy.setPlayhead(idx);
+        }
+        // invalidate so we get a change to draw again
+        invalidateSelf();
+    }
+
     private void selectFrame(int idx) {
-        AnimationFrame frame = mFrames.get(idx);
-        BitmapDecodeTask task = new BitmapDecodeTask(mResource);
-        task.execute(frame.getResourceId());
+        if (mDelta != null) {
+            submitDelta(idx);
+            return;
+        }
+        updateSampleSize();
+        if (mStream != null) {
+            selectStreamFrame(idx);
+            return;
+        }
+        int key = mFrameKeys[idx];
+        Bitmap cached = mCache.getDisplayed(key);
+        if (cached != null) {
+            // flip within this vsync, and drop the frame still decoding for an earlier one
+            ++mDisplaySeq;
+            mFramePending = false;
+            showFrame(idx, cached);
+        } else {
+            submitDecode(idx, key, false);
+        }
+        prefetchAfter(idx);
+    }
+
+    /**
+     * Keep the next frames in playback order decoding, as many as fit in cache besides the frame
+     * on screen and the selected one
+     */
+    private void prefetchAfter(int idx) {
+        int frameBytes = mCache.getFrameBytes();
+        if (mPrefetch <= 0 || frameBytes <= 0) {
+            return;
+        }
+        final int numFrames = mFrameCount;
+        if (mPrefetching.length != numFrames) {
+            mPrefetching = new boolean[numFrames];
+        }
+        int window = Math.min(mPrefetch, mCache.maxSize() / frameBytes - 2);
+        for (int i = 1; i <= window && i < numFrames; i++) {
+            int next = idx + i;
+            if (next >= numFrames) {
+                if (mOneShot) {
+                    break;
+                }
+                next -= numFrames;
+            }
+            int key = mFrameKeys[next];
+            if (mPrefetching[next] || mCache.contains(key)) {
+                continue;
+            }
+            mPrefetching[next] = true;
+            submitDecode(next, key, true);
+        }
+    }
+
+    /**
+     * Pick the largest power of 2 sample size whose frames are still no smaller than they are
+     * drawn, frames cached at another sample size are dropped.
+     */
+    private void updateSampleSize() {
+        if (mIntrinsicWidth <= 0 || mIntrinsicHeight <= 0) {
+            return;
+        }
+        int targetWidth = mTargetWidth;
+        int targetHeight = mTargetHeight;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            View view = mViewRef != null ? mViewRef.get() : null;
+            if (view == null || view.getWidth() <= 0 || view.getHeight() <= 0) {
+                return;
+            }
+            if (view.getWidth() == mHostWidth && view.getHeight() == mHostHeight) {
+                // the host is laid out as before, so is the frame
+                return;
+            }
+            mHostWidth = view.getWidth();
+            mHostHeight = view.getHeight();
+            targetWidth = mIntrinsicWidth;
+            targetHeight = mIntrinsicHeight;
+            if (view instanceof ImageView) {
+                // the image matrix scales the frame into the view according to its scale type
+                Matrix matrix = ((ImageView) view).getImageMatrix();
+                matrix.getValues(mMatrixValues);
+                targetWidth = (int) Math.ceil(mIntrinsicWidth * Math.abs(mMatrixValues[Matrix
+                    .MSCALE_X]));
+                targetHeight = (int) Math.ceil(mIntrinsicHeight * Math.abs(mMatrixValues[Matrix
+                    .MSCALE_Y]));
+            }
+        }
+        int sampleSize = 1;
+        while (mIntrinsicWidth / (sampleSize * 2) >= targetWidth
+            && mIntrinsicHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        if (mCache.setDecodeOptions(sampleSize, mCache.getConfig())) {
+            Log.i(TAG, "decode frames with sample size " + sampleSize);
+            cancelPendingDecodes();
+            // unknown until the first frame at new size is decoded
+            mBitmapWidth = mBitmapHeight = -1;
+        }
+    }
+
+    /**
+     * Streaming mode: show the back buffer if it holds the frame, otherwise decode the frame and
+     * show it once decoded
+     */
+    private void selectStreamFrame(int idx) {
+        DoubleBuffer stream = mStream;
+        if (stream.getFrontFrame() == idx) {
+            decodeStreamAhead(idx);
+        } else if (stream.getBackFrame() == idx) {
+            showStreamBack();
+        } else {
+            if (mStreamWanted >= 0 && mStreamWanted != idx) {
+                onFrameDropped(mStreamWanted);
+            }
+            mStreamWanted = idx;
+            if (!stream.isDecoding()) {
+                submitStreamDecode(idx);
+            }
+            // otherwise decoded once the back buffer is free
+        }
+    }
+
+    private void showStreamBack() {
+        mStream.swap();
+        mStreamWanted = -1;
+        mCurBitmap = mStream.getFront();
+        invalidateSelf();
+        decodeStreamAhead(mStream.getFrontFrame());
+    }
+
+    /**
+     * Decode the frame after {@code shown} into the back buffer, so it's ready when due
+     */
+    private void decodeStreamAhead(int shown) {
+        int next = shown + 1;
+        if (next >= mFrameCount) {
+            if (mOneShot) {
+                return;
+            }
+            next = 0;
+        }
+        if (!mStream.isDecoding() && mStream.getBackFrame() != next) {
+            submitStreamDecode(next);
+        }
+    }
+
+    private void submitStreamDecode(int idx) {
+        StreamDecodeRequest request = mFreeStreamRequests;
+        if (request != null) {
+            mFreeStreamRequests = request.mNextFree;
+            request.mNextFree = null;
+        } else {
+            request = new StreamDecodeRequest();
+        }
+        request.mStream = mStream;
+        request.mFrame = idx;
+        request.mBuffer = mStream.beginDecode();
+        request.mPrefetch = idx != mStreamWanted;
+        request.mSampleSize = mCache.getSampleSize();
+        request.mConfig = mCache.getConfig();
+        request.mGeneration = mGeneration;
+        DecodeScheduler scheduler = mScheduler != null ? mScheduler : DecodeScheduler.getDefault();
+        scheduler.submit(request);
+    }
+
+    /**
+     * Decode the patches leading from the composited frame to {@code target}
+     */
+    private void submitDelta(int target) {
+        if (mDelta.getComposite() == null) {
+            return;
+        }
+        if (mDelta.getFrame() == target) {
+            ++mDisplaySeq;
+            mFramePending = false;
+            invalidateSelf();
+            return;
+        }
+        DeltaDecodeRequest request = mFreeDeltaRequests;
+        if (request != null) {
+            mFreeDeltaRequests = request.mNextFree;
+            request.mNextFree = null;
+        } else {
+            request = new DeltaDecodeRequest();
+        }
+        request.mBase = mDelta.shouldRestart(target, !mOneShot) ? -1 : mDelta.getFrame();
+        request.mTarget = target;
+        request.mFrames = mDelta.patchFrames(request.mBase, target, request.mFrames);
+        request.mFrameCount = mDelta.patchCount(request.mBase, target);
+        request.mPatchCount = 0;
+        request.mPrefetch = false;
+        request.mConfig = mCache.getConfig();
+        request.mGeneration = mGeneration;
+        request.mSeq = ++mDisplaySeq;
+        mFramePending = true;
+        DecodeScheduler scheduler = mScheduler != null ? mScheduler : DecodeScheduler.getDefault();
+        scheduler.submit(request);
+    }
+
+    /**
+     * Invalidate the part of the host view showing a rect of the frame
+     */
+    private void invalidateFrameRect(Rect rect) {
+        View view = mViewRef != null ? mViewRef.get() : null;
+        if (view == null || getCallback() != view) {
+            invalidateSelf();
+            return;
+        }
+        if (view instanceof ImageView) {
+            mDirtyRect.set(rect);
+            ((ImageView) view).getImageMatrix().mapRect(mDirtyRect);
+            mDirtyRect.offset(view.getPaddingLeft(), view.getPaddingTop());
+            view.invalidate((int) Math.floor(mDirtyRect.left), (int) Math.floor(mDirtyRect.top),
+                (int) Math.ceil(mDirtyRect.right), (int) Math.ceil(mDirtyRect.bottom));
+        } else {
+            view.invalidate(rect);
+        }
+    }
+
+    private void submitDecode(int idx, int key, boolean prefetch) {
+        FrameDecodeRequest request = mFreeRequests;
+        if (request != null) {
+            mFreeRequests = request.mNextFree;
+            request.mNextFree = null;
+        } else {
+            request = new FrameDecodeRequest();
+        }
+        request.mFrame = idx;
+        request.mKey = key;
+        request.mPrefetch = prefetch;
+        request.mSampleSize = mCache.getSampleSize();
+        request.mConfig = mCache.getConfig();
+        request.mGeneration = mGeneration;
+        request.mSkipSeq = mSkipSeq;
+        if (!prefetch) {
+            request.mSeq = ++mDisplaySeq;
+            mFramePending = true;
+        }
+        DecodeScheduler scheduler = mScheduler != null ? mScheduler : DecodeScheduler.getDefault();
+        scheduler.submit(request);
     }
 
     @Override
@@ -402,6 +1172,7 @@ public class LazyAnimationDrawable extends Drawable implements Runnable, Animata
             a.recycle();
             addFrame(drawableValue.resourceId, duration);
         }
+        mSource = new ResourceFrameSource(r, Arrays.copyOf(mFrameKeys, mFrameCount));
     }
 
     private boolean isAfterLollipop() {
@@ -439,46 +1210,72 @@ public class LazyAnimationDrawable extends Drawable implements Runnable, Animata
     }
 
     /**
-     * Drop the decoding job on to async to
+     * Decode a frame on {@link DecodeScheduler}, requests are reused once delivered
      */
-    private class BitmapDecodeTask extends AsyncTask<Integer, Void, Bitmap> {
+    private class FrameDecodeRequest extends DecodeRequest {
+
+        private int mFrame;
+        private int mKey;
+        private int mSampleSize;
+        private Bitmap.Config mConfig;
+        private int mGeneration;
+        private int mSeq;
+        private int mSkipSeq;
+        /**
+         * true if {@link #decode()} decoded the frame, false if it was cached
+         */
+        private boolean mDecoded;
+        private FrameDecodeRequest mNextFree;
 
-        private Resources mResource;
-        private View mView;
+        private boolean isCancelled() {
+            return mGeneration != LazyAnimationDrawable.this.mGeneration;
+        }
 
-        BitmapDecodeTask(Resources resources) {
-            mResource = resources;
+        private boolean isSuperseded() {
+            // a frame to be shown is superseded by any frame selected after it, a prefetch by
+            // frames being skipped
+            return mPrefetch ? mSkipSeq != LazyAnimationDrawable.this.mSkipSeq : mSeq
+                != mDisplaySeq;
         }
 
-        BitmapDecodeTask(View imageView) {
-            mView = imageView;
-            mResource = imageView.getResources();
+        @Override
+        boolean isStale() {
+            return isCancelled() || isSuperseded();
         }
 
         @SuppressLint("NewApi")
         @Override
-        protected Bitmap doInBackground(Integer... params) {
-            int resId = params[0];
+        Bitmap decode() {
+            int key = mKey;
+            if (mPrefetch && mCache.contains(key)) {
+                return null;
+            }
             BitmapFactory.Options options = new BitmapFactory.Options();
             options.inMutable = true;
-            Bitmap bitmap = sharedCache.get(resId);
+            options.inSampleSize = mSampleSize;
+            options.inPreferredConfig = mConfig;
+            Bitmap bitmap = mPrefetch ? mCache.get(key) : mCache.getPending(key, mSeq);
+            mDecoded = bitmap == null;
             if (bitmap == null) {
-                if (sharedCache.size() >= maxCacheSize) {
-                    Integer lastKey = sharedCache.lastKey(2);
-                    if (lastKey != null) {
-                        Bitmap b = sharedCache.get(lastKey);
-                        if (b != null) {
-                            options.inBitmap = b;
+                options.inBitmap = obtainReusableBitmap();
+                try {
+                    try {
+                        bitmap = mSource.decode(mFrame, options);
+                    } catch (IllegalArgumentException e) {
+                        if (options.inBitmap == null) {
+                            throw e;
                         }
-                        sharedCache.remove(lastKey);
+                        // frame doesn't fit the reused bitmap
+                        CacheRegistry.getInstance().getBitmapPool().put(options.inBitmap);
+                        options.inBitmap = null;
+                        bitmap = mSource.decode(mFrame, options);
                     }
-                }
-                try {
-                    bitmap = BitmapFactory.decodeResource(mResource, resId, options);
-                    sharedCache.put(resId, bitmap);
+                } catch (IOException e) {
+                    Log.w(TAG, "read frame " + mFrame + " failed", e);
                 } catch (OutOfMemoryError e) {
-                    Log.w("LifoCache", "decode bitmap failed, maybe too large", e);
+                    Log.w(TAG, "decode bitmap failed, maybe too large", e);
                     // not instant gc
+                    CacheRegistry.getInstance().evictAll();
                     evictAllCache();
                 }
             }
@@ -486,39 +1283,352 @@ public class LazyAnimationDrawable extends Drawable implements Runnable, Animata
         }
 
         @Override
-        protected void onPostExecute(Bitmap result) {
-            super.onPostExecute(result);
+        Bitmap publish(@NonNull Bitmap bitmap, boolean shared) {
+            BitmapPool pool = CacheRegistry.getInstance().getBitmapPool();
+            if (shared) {
+                // drawn by other animations too, its memory must not be decoded into
+                pool.markShared(bitmap);
+            }
+            if (!mDecoded) {
+                return bitmap;
+            }
+            if (isCancelled()) {
+                // stopped while decoding, keep the memory for reuse only
+                mWasted = true;
+                pool.put(bitmap);
+                return null;
+            }
+            if (!mCache.putDecoded(mKey, bitmap, mSampleSize, mConfig, !mPrefetch, mSeq)) {
+                mWasted = true;
+                pool.put(bitmap);
+                return null;
+            }
+            return bitmap;
+        }
+
+        @Override
+        long decodeKey() {
+            return FramePartition.sharedKey(mKey, mSampleSize, mConfig);
+        }
+
+        @Override
+        Bitmap adopt(@NonNull Bitmap result) {
+            if (isCancelled()) {
+                return null;
+            }
+            Bitmap bitmap = mPrefetch ? mCache.get(mKey) : mCache.getPending(mKey, mSeq);
+            if (bitmap != null) {
+                return bitmap;
+            }
+            // marked shared by the leading request
+            return mCache.putDecoded(mKey, result, mSampleSize, mConfig, !mPrefetch, mSeq) ? result
+                : null;
+        }
+
+        @Override
+        void deliver(Bitmap result) {
+            if (isCancelled()) {
+                if (result != null) {
+                    mCache.releasePending(result);
+                }
+                return;
+            }
+            if (mPrefetch) {
+                // only warm up the cache
+                if (mFrame < mPrefetching.length && !isSuperseded()) {
+                    mPrefetching[mFrame] = false;
+                }
+                return;
+            }
+            if (isSuperseded()) {
+                // a later frame is on its way, showing this one would step back
+                if (result != null) {
+                    mCache.releasePending(result);
+                }
+                onFrameDropped(mFrame);
+                return;
+            }
+            mFramePending = false;
             if (result != null) {
-                mCurBitmap = result;
-                // invalidate so we get a change to draw again
-                invalidateSelf();
+                showFrame(mFrame, result);
             }
         }
+
+        @Override
+        void recycle() {
+            mNextFree = mFreeRequests;
+            mFreeRequests = this;
+        }
     }
 
     /**
-     * Clear all cache and notify gc
+     * Decode the patches of frames between the composited frame and the selected one, they are
+     * applied on main thread when delivered
      */
-    private void evictAllCache() {
-        sharedCache.evictAll();
-        System.gc();
+    private class DeltaDecodeRequest extends DecodeRequest {
+        /**
+         * keys of delta requests are negative, frame keys of {@link FramePartition#sharedKey}
+         * are not, so delta requests are never coalesced
+         */
+        private static final long FIRST_KEY = -1;
+
+        private final long mDecodeKey = nextDecodeKey();
+        private int mBase;
+        private int mTarget;
+        private int[] mFrames;
+        private int mFrameCount;
+        private Bitmap[] mPatches = new Bitmap[0];
+        private int mPatchCount;
+        private Bitmap mKeyframe;
+        private boolean mDecoded;
+        private Bitmap.Config mConfig;
+        private int mGeneration;
+        private int mSeq;
+        private DeltaDecodeRequest mNextFree;
+
+        private boolean isCancelled() {
+            return mGeneration != LazyAnimationDrawable.this.mGeneration;
+        }
+
+        @Override
+        boolean isStale() {
+            return isCancelled() || mSeq != mDisplaySeq;
+        }
+
+        @Override
+        long decodeKey() {
+            return mDecodeKey;
+        }
+
+        @SuppressLint("NewApi")
+        @Override
+        Bitmap decode() {
+            DeltaFrameSource source = (DeltaFrameSource) mSource;
+            BitmapPool pool = CacheRegistry.getInstance().getBitmapPool();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            options.inPreferredConfig = mConfig;
+            try {
+                if (mBase < 0) {
+                    mKeyframe = source.decodeKeyframe(options);
+                    if (mKeyframe == null) {
+                        return null;
+                    }
+                }
+                int count = mFrameCount;
+                if (mPatches.length < count) {
+                    mPatches = new Bitmap[count];
+                }
+                for (int i = 0; i < count; i++) {
+                    Rect rect = source.getDirtyRect(mFrames[i]);
+                    options.inBitmap = rect.isEmpty() ? null : pool.get(rect.width(), rect
+                        .height(), mConfig);
+                    Bitmap patch;
+                    try {
+                        patch = source.decodePatch(mFrames[i], options);
+                    } catch (IllegalArgumentException e) {
+                        if (options.inBitmap == null) {
+                            throw e;
+                        }
+                        pool.put(options.inBitmap);
+                        options.inBitmap = null;
+                        patch = source.decodePatch(mFrames[i], options);
+                    }
+                    if (patch == null && options.inBitmap != null) {
+                        pool.put(options.inBitmap);
+                    }
+                    mPatches[i] = patch;
+                    mPatchCount = i + 1;
+                }
+            } catch (OutOfMemoryError e) {
+                Log.w(TAG, "decode patch failed", e);
+                CacheRegistry.getInstance().evictAll();
+                release();
+                return null;
+            }
+            mDecoded = true;
+            if (isCancelled()) {
+                mWasted = true;
+            }
+            return null;
+        }
+
+        @Override
+        Bitmap adopt(@NonNull Bitmap result) {
+            return decode();
+        }
+
+        @Override
+        void deliver(Bitmap result) {
+            DeltaCompositor delta = mDelta;
+            if (!isCancelled() && mSeq != mDisplaySeq) {
+                onFrameDropped(mTarget);
+            } else if (!isCancelled()) {
+                mFramePending = false;
+            }
+            if (!mDecoded || isCancelled() || delta == null || (mBase >= 0 && delta.getFrame()
+                != mBase)) {
+                // superseded, or the composite moved on since the patches were picked
+                release();
+                return;
+            }
+            if (mKeyframe != null) {
+                delta.reset(mKeyframe);
+            }
+            Rect dirty = delta.apply(mFrames, mPatches, mPatchCount, mTarget);
+            mCurBitmap = delta.getComposite();
+            if (mKeyframe != null) {
+                invalidateSelf();
+            } else if (!dirty.isEmpty()) {
+                invalidateFrameRect(dirty);
+            }
+            release();
+        }
+
+        /**
+         * hand decoded patches over to the pool
+         */
+        private void release() {
+            BitmapPool pool = CacheRegistry.getInstance().getBitmapPool();
+            for (int i = 0; i < mPatchCount; i++) {
+                if (mPatches[i] != null) {
+                    pool.put(mPatches[i]);
+                    mPatches[i] = null;
+                }
+            }
+            mPatchCount = 0;
+            if (mKeyframe != null && mKeyframe != mCurBitmap) {
+                pool.put(mKeyframe);
+            }
+            mKeyframe = null;
+            mDecoded = false;
+        }
+
+        @Override
+        void recycle() {
+            mNextFree = mFreeDeltaRequests;
+            mFreeDeltaRequests = this;
+        }
     }
 
-    private class AnimationFrame {
-        private int mResourceId;
-        private int mDuration;
+    /**
+     * Decode a frame into the back buffer in streaming mode. The buffer belongs to the request
+     * until delivered, so requests are never coalesced, they use delta request keys.
+     */
+    private class StreamDecodeRequest extends DecodeRequest {
+        private final long mDecodeKey = nextDecodeKey();
+        private DoubleBuffer mStream;
+        private int mFrame;
+        private Bitmap mBuffer;
+        private int mSampleSize;
+        private Bitmap.Config mConfig;
+        private int mGeneration;
+        private StreamDecodeRequest mNextFree;
+
+        private boolean isCancelled() {
+            return mGeneration != LazyAnimationDrawable.this.mGeneration;
+        }
+
+        @Override
+        boolean isStale() {
+            return isCancelled();
+        }
+
+        @Override
+        long decodeKey() {
+            return mDecodeKey;
+        }
+
+        @Override
+        Bitmap decode() {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            options.inSampleSize = mSampleSize;
+            options.inPreferredConfig = mConfig;
+            options.inBitmap = mBuffer;
+            try {
+                try {
+                    return mSource.decode(mFrame, options);
+                } catch (IllegalArgumentException e) {
+                    if (options.inBitmap == null) {
+                        throw e;
+                    }
+                    // frame doesn't fit the back buffer, it's replaced
+                    mBuffer = null;
+                    options.inBitmap = null;
+                    return mSource.decode(mFrame, options);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "read frame " + mFrame + " failed", e);
+            } catch (OutOfMemoryError e) {
+                Log.w(TAG, "decode bitmap failed, maybe too large", e);
+                CacheRegistry.getInstance().evictAll();
+            }
+            return null;
+        }
+
+        @Override
+        Bitmap adopt(@NonNull Bitmap result) {
+            return decode();
+        }
 
-        AnimationFrame(int resourceId, int duration) {
-            mResourceId = resourceId;
-            mDuration = duration;
+        @Override
+        void deliver(Bitmap result) {
+            DoubleBuffer stream = mStream;
+            Bitmap back = result != null ? result : mBuffer;
+            mStream = null;
+            mBuffer = null;
+            if (stream != LazyAnimationDrawable.this.mStream) {
+                // frames were replaced
+                return;
+            }
+            boolean decoded = result != null && !isCancelled();
+            stream.endDecode(back, decoded ? mFrame : -1);
+            if (decoded && mStreamWanted == mFrame) {
+                showStreamBack();
+            } else if (mStreamWanted >= 0 && (mStreamWanted != mFrame || isCancelled())) {
+                submitStreamDecode(mStreamWanted);
+            } else if (mStreamWanted == mFrame) {
+                // can't be read, the frame is skipped
+                mStreamWanted = -1;
+            }
         }
 
-        int getResourceId() {
-            return mResourceId;
+        @Override
+        void recycle() {
+            mNextFree = mFreeStreamRequests;
+            mFreeStreamRequests = this;
         }
+    }
+
+    private static long sNextDecodeKey = DeltaDecodeRequest.FIRST_KEY;
+
+    private static synchronized long nextDecodeKey() {
+        return sNextDecodeKey--;
+    }
 
-        int getDuration() {
-            return mDuration;
+    /**
+     * Take a bitmap from the pool to decode the next frame into. If nothing fits and the cache is
+     * full, evict the frame chosen by the eviction policy first so its memory is reused.
+     */
+    private Bitmap obtainReusableBitmap() {
+        if (mBitmapWidth <= 0 || mBitmapHeight <= 0) {
+            return null;
+        }
+        BitmapPool pool = CacheRegistry.getInstance().getBitmapPool();
+        Bitmap reusable = pool.get(mBitmapWidth, mBitmapHeight, mBitmapConfig);
+        if (reusable == null && mCache.isFull()) {
+            mCache.trimToSize(mCache.maxSize() - mCache.getFrameBytes());
+            reusable = pool.get(mBitmapWidth, mBitmapHeight, mBitmapConfig);
         }
+        return reusable;
+    }
+
+    /**
+     * Clear frames cached by this drawable and notify gc
+     */
+    private void evictAllCache() {
+        mCache.evictAll();
+        System.gc();
     }
 }
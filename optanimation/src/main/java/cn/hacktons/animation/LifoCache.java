@@ -20,15 +20,27 @@ package cn.hacktons.animation;
 
 import android.util.Log;
 
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * A LIFO cache modified from {@link android.util.LruCache}. Used to cache the recently unused data
  * and drop latest recently used data. Can be used for frame animations which loop infinitely.
+ *
+ * <p>Entries are kept in an intrusive doubly-linked list ordered from least recently used (head)
+ * to most recently used (tail), so the eviction victim and {@link #lastKey(int)} are found by
+ * walking from the tail instead of copying the key set. Unlinked entries are recycled, so a
+ * cache that is full evicts without allocation.
  */
 public class LifoCache<K, V> {
-    private final LinkedHashMap<K, V> map;
+    private final HashMap<K, Entry<K, V>> map;
+    /** least recently used entry */
+    private Entry<K, V> head;
+    /** most recently used entry */
+    private Entry<K, V> tail;
+    /** recycled entries, linked by {@link Entry#next} */
+    private Entry<K, V> recycled;
 
     /** Size of this cache in units. Not necessarily the number of elements. */
     private int size;
@@ -50,7 +62,7 @@ public class LifoCache<K, V> {
             throw new IllegalArgumentException("maxSize <= 0");
         }
         this.maxSize = maxSize;
-        this.map = new LinkedHashMap<K, V>(0, 0.75f, true);
+        this.map = new HashMap<K, Entry<K, V>>();
     }
 
     /**
@@ -85,10 +97,11 @@ public class LifoCache<K, V> {
 
         V mapValue;
         synchronized (this) {
-            mapValue = map.get(key);
-            if (mapValue != null) {
+            Entry<K, V> entry = map.get(key);
+            if (entry != null) {
+                moveToTail(entry);
                 hitCount++;
-                return mapValue;
+                return entry.value;
             }
             missCount++;
         }
@@ -107,12 +120,15 @@ public class LifoCache<K, V> {
 
         synchronized (this) {
             createCount++;
-            mapValue = map.put(key, createdValue);
+            Entry<K, V> entry = map.get(key);
 
-            if (mapValue != null) {
-                // There was a conflict so undo that last put
-                map.put(key, mapValue);
+            if (entry != null) {
+                // There was a conflict so keep the value already in the map
+                mapValue = entry.value;
+                moveToTail(entry);
             } else {
+                mapValue = null;
+                linkLast(key, createdValue);
                 size += safeSizeOf(key, createdValue);
             }
         }
@@ -141,9 +157,15 @@ public class LifoCache<K, V> {
         synchronized (this) {
             putCount++;
             size += safeSizeOf(key, value);
-            previous = map.put(key, value);
-            if (previous != null) {
+            Entry<K, V> entry = map.get(key);
+            if (entry != null) {
+                previous = entry.value;
+                entry.value = value;
+                moveToTail(entry);
                 size -= safeSizeOf(key, previous);
+            } else {
+                previous = null;
+                linkLast(key, value);
             }
         }
 
@@ -176,10 +198,11 @@ public class LifoCache<K, V> {
                     break;
                 }
 
-                Object[] keyArray = map.keySet().toArray();
-                key = (K) keyArray[keyArray.length - 1];
-                value = map.get(key);
+                Entry<K, V> toEvict = tail;
+                key = toEvict.key;
+                value = toEvict.value;
                 map.remove(key);
+                unlink(toEvict);
                 size -= safeSizeOf(key, value);
                 evictionCount++;
             }
@@ -188,22 +211,23 @@ public class LifoCache<K, V> {
         }
     }
 
-    public K lastKey(int index) {
-        if (map.size() > 0) {
-            try {
-                Object[] keyArray = map.keySet().toArray();
-                if (keyArray.length - index >= 0) {
-                    K key = (K) keyArray[keyArray.length - index];
-                    return key;
-                } else {
-                    Log.w("LifoCache", "invalid index");
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                return null;
+    /**
+     * Returns the key of the {@code index}-th most recently used entry, 1 for the most recently
+     * used one. This walks {@code index} entries from the tail, so it is constant time for the
+     * small indexes used while decoding.
+     */
+    public synchronized K lastKey(int index) {
+        if (index <= 0 || index > map.size()) {
+            if (!map.isEmpty()) {
+                Log.w("LifoCache", "invalid index");
             }
+            return null;
         }
-        return null;
+        Entry<K, V> entry = tail;
+        for (int i = 1; i < index; i++) {
+            entry = entry.prev;
+        }
+        return entry.key;
     }
 
     /**
@@ -218,9 +242,13 @@ public class LifoCache<K, V> {
 
         V previous;
         synchronized (this) {
-            previous = map.remove(key);
-            if (previous != null) {
+            Entry<K, V> entry = map.remove(key);
+            if (entry != null) {
+                previous = entry.value;
+                unlink(entry);
                 size -= safeSizeOf(key, previous);
+            } else {
+                previous = null;
             }
         }
 
@@ -353,7 +381,11 @@ public class LifoCache<K, V> {
      * recently accessed to most recently accessed.
      */
     public synchronized final Map<K, V> snapshot() {
-        return new LinkedHashMap<K, V>(map);
+        LinkedHashMap<K, V> copy = new LinkedHashMap<K, V>(map.size());
+        for (Entry<K, V> entry = head; entry != null; entry = entry.next) {
+            copy.put(entry.key, entry.value);
+        }
+        return copy;
     }
 
     @Override public synchronized final String toString() {
@@ -362,4 +394,72 @@ public class LifoCache<K, V> {
         return String.format("LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
                 maxSize, hitCount, missCount, hitPercent);
     }
+
+    /**
+     * Appends a new entry as the most recently used one, reusing a recycled entry if any.
+     */
+    private void linkLast(K key, V value) {
+        Entry<K, V> entry = recycled;
+        if (entry != null) {
+            recycled = entry.next;
+            entry.next = null;
+        } else {
+            entry = new Entry<K, V>();
+        }
+        entry.key = key;
+        entry.value = value;
+        entry.prev = tail;
+        if (tail != null) {
+            tail.next = entry;
+        } else {
+            head = entry;
+        }
+        tail = entry;
+        map.put(key, entry);
+    }
+
+    private void moveToTail(Entry<K, V> entry) {
+        if (entry == tail) {
+            return;
+        }
+        // entry is not the tail, so entry.next is never null
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            head = entry.next;
+        }
+        entry.next.prev = entry.prev;
+        entry.prev = tail;
+        entry.next = null;
+        tail.next = entry;
+        tail = entry;
+    }
+
+    /**
+     * Unlinks an entry which has already been removed from the map, and recycles it.
+     */
+    private void unlink(Entry<K, V> entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            head = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else {
+            tail = entry.prev;
+        }
+        entry.key = null;
+        entry.value = null;
+        entry.prev = null;
+        entry.next = recycled;
+        recycled = entry;
+    }
+
+    private static final class Entry<K, V> {
+        K key;
+        V value;
+        Entry<K, V> prev;
+        Entry<K, V> next;
+    }
 }
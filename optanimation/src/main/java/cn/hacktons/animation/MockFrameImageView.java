@@ -2,6 +2,7 @@ package cn.hacktons.animation;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.widget.ImageView;
@@ -28,6 +29,18 @@ import android.widget.ImageView;
  * </pre>
  */
 public class MockFrameImageView extends ImageView {
+    /**
+     * values of {@code app:bitmap_config}
+     */
+    private static final int CONFIG_ARGB_8888 = 0;
+    private static final int CONFIG_RGB_565 = 1;
+    private static final int CONFIG_AUTO = 2;
+    /**
+     * values of {@code app:late_frame_policy}
+     */
+    private static final int POLICY_HOLD = 0;
+    private static final int POLICY_SKIP_TO_CURRENT = 1;
+    private static final int POLICY_SKIP_WITH_MAX_DROP = 2;
 
     public MockFrameImageView(Context context) {
         super(context);
@@ -54,15 +67,42 @@ public class MockFrameImageView extends ImageView {
             return;
         }
         int size = a.getInt(R.styleable.MockFrameImageView_cache_size, 0);
+        int bytes = a.getInt(R.styleable.MockFrameImageView_cache_bytes, 0);
         float percent = a.getFloat(R.styleable.MockFrameImageView_cache_percent, 0.4f);
+        int prefetch = a.getInt(R.styleable.MockFrameImageView_prefetch, 0);
+        int config = a.getInt(R.styleable.MockFrameImageView_bitmap_config, CONFIG_ARGB_8888);
+        boolean streaming = a.getBoolean(R.styleable.MockFrameImageView_streaming, false);
+        int policy = a.getInt(R.styleable.MockFrameImageView_late_frame_policy, POLICY_HOLD);
+        int maxDropped = a.getInt(R.styleable.MockFrameImageView_max_dropped_frames, 2);
         Drawable drawable = AnimationDrawableCompat.getDrawable(getResources(), a, 0);
         a.recycle();
         if (drawable instanceof LazyAnimationDrawable) {
-            if (size == 0) {
-                size = (int) (((LazyAnimationDrawable) drawable).getFrameCount() * percent);
+            if (bytes > 0) {
+                ((LazyAnimationDrawable) drawable).setCacheBytes(bytes);
+            } else {
+                if (size == 0) {
+                    size = (int) (((LazyAnimationDrawable) drawable).getFrameCount() * percent);
+                }
+                ((LazyAnimationDrawable) drawable).setCacheSize(size);
             }
-            ((LazyAnimationDrawable) drawable).setCacheSize(size);
+            ((LazyAnimationDrawable) drawable).setPrefetch(prefetch);
+            ((LazyAnimationDrawable) drawable).setBitmapConfig(config == CONFIG_RGB_565 ? Bitmap
+                .Config.RGB_565 : config == CONFIG_AUTO ? null : Bitmap.Config.ARGB_8888);
+            ((LazyAnimationDrawable) drawable).setStreaming(streaming);
+            ((LazyAnimationDrawable) drawable).setLateFramePolicy(toLateFramePolicy(policy),
+                maxDropped);
             ((LazyAnimationDrawable) drawable).attachTo(this);
         }
     }
+
+    private static LateFramePolicy toLateFramePolicy(int policy) {
+        switch (policy) {
+            case POLICY_SKIP_TO_CURRENT:
+                return LateFramePolicy.SKIP_TO_CURRENT;
+            case POLICY_SKIP_WITH_MAX_DROP:
+                return LateFramePolicy.SKIP_WITH_MAX_DROP;
+            default:
+                return LateFramePolicy.HOLD;
+        }
+    }
 }
@@ -0,0 +1,147 @@
+package cn.hacktons.animation;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * {@link EvictionPolicy} for frame animations, since the playback order is known in advance the
+ * optimal victim is the frame whose next use is furthest in the future (Belady's algorithm).
+ * <p>
+ * The priority of a key is the number of frames from the playhead to its next occurrence, so the
+ * frame at the playhead is the last one to be evicted. Frames which won't be shown again by a
+ * one shot animation are evicted first.
+ * <p>
+ * Victims are walked from the frame furthest from the playhead back towards it, a frame being
+ * the candidate of its key only if it's the next occurrence of the key.
+ */
+public class NextUseDistancePolicy implements OrderedEvictionPolicy {
+    /**
+     * key of each frame in playback order
+     */
+    private final int[] mFrameKeys;
+    /**
+     * distinct keys, sorted for binary search
+     */
+    private final int[] mKeys;
+    /**
+     * frame positions of {@code mKeys[i]} are {@code mPositions[mOffsets[i]..mOffsets[i + 1])}
+     */
+    private final int[] mOffsets;
+    private final int[] mPositions;
+    private final int mFrameCount;
+    private final boolean mLoop;
+    private volatile int mPlayhead;
+
+    /**
+     * @param frameKeys cache key of each frame in playback order
+     * @param loop      false if the animation is one shot
+     */
+    public NextUseDistancePolicy(@NonNull int[] frameKeys, boolean loop) {
+        mFrameKeys = frameKeys.clone();
+        mFrameCount = frameKeys.length;
+        mLoop = loop;
+        int[] sorted = frameKeys.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        mKeys = Arrays.copyOf(sorted, distinct);
+        mOffsets = new int[distinct + 1];
+        for (int key : frameKeys) {
+            mOffsets[Arrays.binarySearch(mKeys, key) + 1]++;
+        }
+        for (int i = 0; i < distinct; i++) {
+            mOffsets[i + 1] += mOffsets[i];
+        }
+        mPositions = new int[frameKeys.length];
+        int[] filled = new int[distinct];
+        // positions are added in playback order, so each range is sorted
+        for (int position = 0; position < frameKeys.length; position++) {
+            int index = Arrays.binarySearch(mKeys, frameKeys[position]);
+            mPositions[mOffsets[index] + filled[index]++] = position;
+        }
+    }
+
+    /**
+     * @param frame index of the frame on screen
+     */
+    public void setPlayhead(int frame) {
+        mPlayhead = frame;
+    }
+
+    public int getPlayhead() {
+        return mPlayhead;
+    }
+
+    /**
+     * @return frames until {@code key} is shown again, or {@link Integer#MAX_VALUE} if never
+     */
+    public int distance(int key) {
+        return distance(key, mPlayhead);
+    }
+
+    private int distance(int key, int playhead) {
+        int index = Arrays.binarySearch(mKeys, key);
+        if (index < 0) {
+            return Integer.MAX_VALUE;
+        }
+        int from = mOffsets[index];
+        int to = mOffsets[index + 1];
+        int next = Arrays.binarySearch(mPositions, from, to, playhead);
+        if (next >= 0) {
+            return 0;
+        }
+        next = -next - 1;
+        if (next < to) {
+            return mPositions[next] - playhead;
+        }
+        // wraps around to the first occurrence
+        return mLoop ? mPositions[from] + mFrameCount - playhead : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int priority(int key) {
+        return distance(key);
+    }
+
+    @Override
+    public int candidateCount() {
+        return mFrameCount;
+    }
+
+    @Override
+    public int candidateAt(int step) {
+        if (step < 0 || step >= mFrameCount) {
+            return IntKeyFrameCache.NO_KEY;
+        }
+        int playhead = mPlayhead;
+        int position;
+        int distance;
+        if (mLoop) {
+            // from the frame before the playhead, backwards around the loop
+            position = playhead - 1 - step;
+            if (position < 0) {
+                position += mFrameCount;
+            }
+            distance = position >= playhead ? position - playhead
+                : position + mFrameCount - playhead;
+        } else if (step < playhead) {
+            // frames already shown, unless shown again later, by their last occurrence
+            position = step;
+            int key = mFrameKeys[position];
+            int index = Arrays.binarySearch(mKeys, key);
+            return mPositions[mOffsets[index + 1] - 1] == position ? key
+                : IntKeyFrameCache.NO_KEY;
+        } else {
+            // from the last frame back to the playhead
+            position = mFrameCount - 1 - (step - playhead);
+            distance = position - playhead;
+        }
+        int key = mFrameKeys[position];
+        return distance(key, playhead) == distance ? key : IntKeyFrameCache.NO_KEY;
+    }
+}
@@ -0,0 +1,24 @@
+package cn.hacktons.animation;
+
+/**
+ * An {@link EvictionPolicy} which can walk its keys in eviction order, so the cache finds each
+ * victim by walking on from the previous one instead of asking the priority of every entry.
+ * <p>
+ * Shrinking a cache by n entries then takes one walk over the keys, rather than n scans of the
+ * cache. Keys of {@link Integer#MAX_VALUE} priority, such as keys the policy doesn't know, are
+ * looked for by one scan before the walk.
+ */
+public interface OrderedEvictionPolicy extends EvictionPolicy {
+
+    /**
+     * @return number of steps of a walk
+     */
+    int candidateCount();
+
+    /**
+     * @param step step of the walk, from 0
+     * @return the key evicted at this step if it's cached, or {@link IntKeyFrameCache#NO_KEY} if
+     * there is none; keys come in decreasing order of {@link #priority}
+     */
+    int candidateAt(int step);
+}
@@ -0,0 +1,17 @@
+package cn.hacktons.animation;
+
+import android.support.annotation.Nullable;
+
+/**
+ * A {@link FrameSource} whose frames can be named across processes, so their pixels can be kept
+ * on disk by {@link DiskFrameCache}. Frame keys only live as long as the process.
+ */
+public interface PersistentFrameSource extends FrameSource {
+
+    /**
+     * @return a name which stays the same as long as the frame image does, and changes when the
+     * image changes, or null if the frame can't be named
+     */
+    @Nullable
+    String getFrameName(int index);
+}
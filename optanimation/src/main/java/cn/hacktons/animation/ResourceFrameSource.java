@@ -0,0 +1,85 @@
+package cn.hacktons.animation;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.DrawableRes;
+import android.support.annotation.NonNull;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+import java.io.IOException;
+
+/**
+ * Frames of drawable resources, one resource per frame. Frames are keyed by resource id.
+ */
+public final class ResourceFrameSource implements PersistentFrameSource,
+    EncodedFrameSource {
+    private final Resources mResources;
+    private final int[] mResIds;
+
+    /**
+     * @param resources resources of the frames
+     * @param resIds    bitmap drawable of each frame
+     */
+    public ResourceFrameSource(@NonNull Resources resources, @NonNull @DrawableRes int[] resIds) {
+        mResources = resources;
+        mResIds = resIds.clone();
+    }
+
+    @Override
+    public int getFrameCount() {
+        return mResIds.length;
+    }
+
+    @Override
+    public int getFrameKey(int index) {
+        return mResIds[index];
+    }
+
+    @Override
+    public void decodeBounds(int index, @NonNull BitmapFactory.Options options) {
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(mResources, mResIds[index], options);
+        options.inJustDecodeBounds = false;
+    }
+
+    @Override
+    public Bitmap decode(int index, @NonNull BitmapFactory.Options options) {
+        return BitmapFactory.decodeResource(mResources, mResIds[index], options);
+    }
+
+    @Override
+    public String getFrameName(int index) {
+        // resource ids change between builds, the disk cache drops frames of other builds
+        return "res:" + mResIds[index] + ":" + mResources.getDisplayMetrics().densityDpi;
+    }
+
+    @Override
+    public byte[] readFrameBytes(int index) throws IOException {
+        return DeltaFrameSource.readFully(mResources.openRawResource(mResIds[index]));
+    }
+
+    @Override
+    public Bitmap decodeFrameBytes(int index, @NonNull byte[] bytes, @NonNull BitmapFactory
+        .Options options) {
+        // scale from the density of the resource, as decodeResource does
+        TypedValue value = new TypedValue();
+        mResources.getValue(mResIds[index], value, true);
+        if (options.inDensity == 0) {
+            if (value.density == TypedValue.DENSITY_DEFAULT) {
+                options.inDensity = DisplayMetrics.DENSITY_DEFAULT;
+            } else if (value.density != TypedValue.DENSITY_NONE) {
+                options.inDensity = value.density;
+            }
+        }
+        if (options.inTargetDensity == 0) {
+            options.inTargetDensity = mResources.getDisplayMetrics().densityDpi;
+        }
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+
+    @Override
+    public void close() {
+    }
+}
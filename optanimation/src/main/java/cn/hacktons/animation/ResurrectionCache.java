@@ -0,0 +1,236 @@
+package cn.hacktons.animation;
+
+import android.graphics.Bitmap;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.util.LongSparseArray;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+/**
+ * Second tier of the frame caches. Frames evicted from a {@link FramePartition} are kept here by
+ * weak (or soft) references, if a frame is needed again before the gc reclaims it, it is
+ * resurrected into the partition instead of being decoded again.
+ * <p>
+ * Cleared references are purged through a {@link ReferenceQueue}, so the tier only holds entries
+ * for bitmaps which are still alive. With soft references the tier also keeps a byte cap and
+ * drops the eldest frames when it's exceeded, soft references are otherwise only cleared under
+ * memory pressure.
+ * <p>
+ * Frames are keyed by {@link FramePartition#sharedKey(int, int, Bitmap.Config)}, so a frame
+ * decoded with another sample size or config is never resurrected in place of this one.
+ */
+public final class ResurrectionCache {
+    private final LongSparseArray<Reference<Bitmap>> mRefs = new LongSparseArray<>(4);
+    private ReferenceQueue<Bitmap> mQueue = new ReferenceQueue<>();
+
+    private boolean mSoft;
+    private long mMaxSoftBytes;
+    private long mSoftBytes;
+    /**
+     * soft references ordered by insertion, eldest first
+     */
+    private SoftFrame mEldest;
+    private SoftFrame mNewest;
+
+    private int mResurrectCount;
+    private int mMissCount;
+    private int mPurgeCount;
+
+    ResurrectionCache() {
+    }
+
+    /**
+     * Keep evicted frames by soft references instead of weak references, which survive until the
+     * heap is running out.
+     *
+     * @param soft     true to use soft references
+     * @param maxBytes max bytes of frames kept by soft references
+     */
+    public synchronized void setSoftReferences(boolean soft, @IntRange(from = 1) long maxBytes) {
+        if (soft && maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        if (soft != mSoft) {
+            clear();
+            mSoft = soft;
+        }
+        mMaxSoftBytes = soft ? maxBytes : 0;
+        trimSoftBytes();
+    }
+
+    /**
+     * keep an evicted frame until it's resurrected or reclaimed by gc
+     */
+    synchronized void put(long key, @NonNull Bitmap bitmap) {
+        purge();
+        remove(key);
+        if (mSoft) {
+            SoftFrame frame = new SoftFrame(key, bitmap, BitmapUtil.getAllocationByteCount
+                (bitmap), mQueue);
+            frame.prev = mNewest;
+            if (mNewest != null) {
+                mNewest.next = frame;
+            } else {
+                mEldest = frame;
+            }
+            mNewest = frame;
+            mSoftBytes += frame.bytes;
+            mRefs.put(key, frame);
+            trimSoftBytes();
+        } else {
+            mRefs.put(key, new WeakFrame(key, bitmap, mQueue));
+        }
+    }
+
+    /**
+     * Remove the frame of {@code key} from this tier
+     *
+     * @return the frame bitmap if it's still alive, null if it has to be decoded
+     */
+    synchronized Bitmap take(long key) {
+        purge();
+        Reference<Bitmap> reference = mRefs.get(key);
+        Bitmap bitmap = reference != null ? reference.get() : null;
+        if (reference != null) {
+            remove(key);
+        }
+        if (bitmap != null) {
+            mResurrectCount++;
+        } else {
+            mMissCount++;
+        }
+        return bitmap;
+    }
+
+    /**
+     * drop all frames of this tier
+     */
+    public synchronized void clear() {
+        mRefs.clear();
+        mEldest = mNewest = null;
+        mSoftBytes = 0;
+        // references enqueued later belong to the old queue and are ignored
+        mQueue = new ReferenceQueue<>();
+    }
+
+    /**
+     * @return number of frames which may still be resurrected
+     */
+    public synchronized int size() {
+        purge();
+        return mRefs.size();
+    }
+
+    /**
+     * Returns the number of frames resurrected instead of being decoded again.
+     */
+    public synchronized int resurrectCount() {
+        return mResurrectCount;
+    }
+
+    /**
+     * Returns the number of lookups which found no live frame, so the frame had to be decoded.
+     */
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the number of entries removed because the gc had cleared their reference.
+     */
+    public synchronized int purgeCount() {
+        return mPurgeCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int lookups = mResurrectCount + mMissCount;
+        int hitPercent = lookups != 0 ? (100 * mResurrectCount / lookups) : 0;
+        return String.format("ResurrectionCache[size=%d,resurrected=%d,misses=%d,hitRate=%d%%," +
+            "purged=%d]", mRefs.size(), mResurrectCount, mMissCount, hitPercent, mPurgeCount);
+    }
+
+    /**
+     * remove entries whose reference has been cleared by the gc
+     */
+    private void purge() {
+        Reference<? extends Bitmap> reference;
+        while ((reference = mQueue.poll()) != null) {
+            long key = ((FrameReference) reference).key();
+            // the key may have been put again after this reference was cleared
+            if (mRefs.get(key) == reference) {
+                remove(key);
+                mPurgeCount++;
+            }
+        }
+    }
+
+    private void remove(long key) {
+        Reference<Bitmap> reference = mRefs.get(key);
+        if (reference == null) {
+            return;
+        }
+        mRefs.remove(key);
+        if (reference instanceof SoftFrame) {
+            SoftFrame frame = (SoftFrame) reference;
+            if (frame.prev != null) {
+                frame.prev.next = frame.next;
+            } else {
+                mEldest = frame.next;
+            }
+            if (frame.next != null) {
+                frame.next.prev = frame.prev;
+            } else {
+                mNewest = frame.prev;
+            }
+            frame.prev = frame.next = null;
+            mSoftBytes -= frame.bytes;
+        }
+    }
+
+    private void trimSoftBytes() {
+        while (mEldest != null && mSoftBytes > mMaxSoftBytes) {
+            remove(mEldest.key);
+        }
+    }
+
+    private interface FrameReference {
+        long key();
+    }
+
+    private static final class WeakFrame extends WeakReference<Bitmap> implements FrameReference {
+        private final long key;
+
+        WeakFrame(long key, Bitmap bitmap, ReferenceQueue<Bitmap> queue) {
+            super(bitmap, queue);
+            this.key = key;
+        }
+
+        @Override
+        public long key() {
+            return key;
+        }
+    }
+
+    private static final class SoftFrame extends SoftReference<Bitmap> implements FrameReference {
+        private final long key;
+        private final int bytes;
+        private SoftFrame prev;
+        private SoftFrame next;
+
+        SoftFrame(long key, Bitmap bitmap, int bytes, ReferenceQueue<Bitmap> queue) {
+            super(bitmap, queue);
+            this.key = key;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long key() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package cn.hacktons.animation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the budget split of {@link CacheRegistry}
+ */
+public class CacheRegistryTest {
+
+    private static FramePartition partition(int frameBytes, int count) {
+        FramePartition partition = new FramePartition();
+        partition.setRequestedCount(count);
+        if (frameBytes > 0) {
+            partition.setFrameBytes(frameBytes);
+        }
+        return partition;
+    }
+
+    @Test
+    public void singlePartitionGetsWhatItAsks() throws Exception {
+        CacheRegistry registry = CacheRegistry.getInstance();
+        long maxBytes = registry.getMaxBytes();
+        FramePartition partition = partition(100, 4);
+        try {
+            registry.setMaxBytes(1000);
+            registry.activate(partition);
+            assertEquals(400, partition.maxSize());
+
+            registry.setMaxBytes(300);
+            assertEquals(300, partition.maxSize());
+        } finally {
+            registry.deactivate(partition);
+            registry.setMaxBytes(maxBytes);
+        }
+    }
+
+    @Test
+    public void unknownFrameSizeTakesTheRest() throws Exception {
+        CacheRegistry registry = CacheRegistry.getInstance();
+        long maxBytes = registry.getMaxBytes();
+        FramePartition known = partition(100, 2);
+        FramePartition unknown = partition(0, 2);
+        FramePartition other = partition(0, 2);
+        try {
+            registry.setMaxBytes(1000);
+            registry.activate(known);
+            registry.activate(unknown);
+            assertEquals(Long.MAX_VALUE, unknown.requestedBytes());
+            assertEquals(200, known.maxSize());
+            assertEquals(800, unknown.maxSize());
+
+            registry.activate(other);
+            assertEquals(200, known.maxSize());
+            assertEquals(400, unknown.maxSize());
+            assertEquals(400, other.maxSize());
+
+            // known once its first frame is decoded
+            unknown.setFrameBytes(50);
+            assertEquals(100, unknown.maxSize());
+            assertEquals(700, other.maxSize());
+        } finally {
+            registry.deactivate(known);
+            registry.deactivate(unknown);
+            registry.deactivate(other);
+            registry.setMaxBytes(maxBytes);
+        }
+    }
+
+    @Test
+    public void budgetSmallerThanOneFrame() throws Exception {
+        CacheRegistry registry = CacheRegistry.getInstance();
+        long maxBytes = registry.getMaxBytes();
+        FramePartition first = partition(100, 2);
+        FramePartition second = partition(100, 2);
+        try {
+            registry.setMaxBytes(50);
+            registry.activate(first);
+            assertEquals(50, first.maxSize());
+
+            registry.setMaxBytes(1);
+            registry.activate(second);
+            // every partition keeps a positive size, though no frame fits
+            assertEquals(1, first.maxSize());
+            assertEquals(1, second.maxSize());
+        } finally {
+            registry.deactivate(first);
+            registry.deactivate(second);
+            registry.setMaxBytes(maxBytes);
+        }
+    }
+}
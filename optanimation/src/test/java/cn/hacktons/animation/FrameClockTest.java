@@ -0,0 +1,67 @@
+package cn.hacktons.animation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the timeline of {@link FrameClock}
+ */
+public class FrameClockTest {
+
+    private static FrameClock clock(int... durations) {
+        FrameClock clock = new FrameClock(new FrameClock.Listener() {
+            @Override
+            public void onFrameTime(long frameTimeNanos) {
+            }
+        });
+        clock.setDurations(durations, durations.length);
+        return clock;
+    }
+
+    @Test
+    public void unequalDurations() throws Exception {
+        FrameClock clock = clock(100, 50, 200);
+        assertEquals(350, clock.getTotalDuration());
+        assertEquals(0, clock.frameAtTime(0, true));
+        assertEquals(0, clock.frameAtTime(99, true));
+        assertEquals(1, clock.frameAtTime(100, true));
+        assertEquals(1, clock.frameAtTime(149, true));
+        assertEquals(2, clock.frameAtTime(150, true));
+        assertEquals(2, clock.frameAtTime(349, true));
+        assertEquals(0, clock.frameAtTime(-10, true));
+        assertEquals(150, clock.startOf(2));
+    }
+
+    @Test
+    public void zeroDurationsLastOneMillisecond() throws Exception {
+        FrameClock clock = clock(0, 0, 100);
+        assertEquals(102, clock.getTotalDuration());
+        assertEquals(0, clock.frameAtTime(0, true));
+        assertEquals(1, clock.frameAtTime(1, true));
+        assertEquals(2, clock.frameAtTime(2, true));
+    }
+
+    @Test
+    public void oneShotStaysOnLastFrame() throws Exception {
+        FrameClock clock = clock(100, 100, 100);
+        assertEquals(2, clock.frameAtTime(300, false));
+        assertEquals(2, clock.frameAtTime(10000, false));
+    }
+
+    @Test
+    public void loopWrapsAround() throws Exception {
+        FrameClock clock = clock(100, 50, 200);
+        assertEquals(0, clock.frameAtTime(350, true));
+        assertEquals(1, clock.frameAtTime(350 + 120, true));
+        assertEquals(2, clock.frameAtTime(3 * 350 + 349, true));
+    }
+
+    @Test
+    public void noFrames() throws Exception {
+        FrameClock clock = clock();
+        assertEquals(0, clock.getTotalDuration());
+        assertEquals(0, clock.frameAtTime(100, true));
+        assertEquals(0, clock.offsetInFrame(0, 0, true));
+    }
+}
@@ -0,0 +1,86 @@
+package cn.hacktons.animation;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link IntKeyFrameCache}
+ */
+public class IntKeyFrameCacheTest {
+
+    @Test
+    public void evictsMostRecentlyUsed() throws Exception {
+        IntKeyFrameCache<String> cache = new IntKeyFrameCache<String>(3);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+        cache.get(1);
+        assertArrayEquals(new int[]{2, 3, 1}, cache.keySnapshot());
+        assertEquals(1, cache.lastKey(1));
+        assertEquals(3, cache.lastKey(2));
+        assertEquals(IntKeyFrameCache.NO_KEY, cache.lastKey(4));
+
+        cache.put(4, "d");
+        assertArrayEquals(new int[]{2, 3, 1}, cache.keySnapshot());
+        assertEquals(1, cache.evictionCount());
+
+        assertEquals("c", cache.remove(3));
+        assertNull(cache.get(3));
+        cache.evictAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.count());
+    }
+
+    @Test
+    public void keepsCollidingKeysReachable() throws Exception {
+        IntKeyFrameCache<Integer> cache = new IntKeyFrameCache<Integer>(64);
+        for (int i = 0; i < 64; i++) {
+            cache.put(0x7f020000 + i * 16, i);
+        }
+        for (int i = 0; i < 64; i += 2) {
+            cache.remove(0x7f020000 + i * 16);
+        }
+        for (int i = 1; i < 64; i += 2) {
+            assertEquals(Integer.valueOf(i), cache.get(0x7f020000 + i * 16));
+        }
+        assertEquals(32, cache.size());
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int[] resIds = new int[16];
+        Object[] bitmaps = new Object[resIds.length];
+        for (int i = 0; i < resIds.length; i++) {
+            resIds[i] = 0x7f020000 + i;
+            bitmaps[i] = new Object();
+        }
+        IntKeyFrameCache<Object> cache = new IntKeyFrameCache<Object>(6);
+
+        // warm up until the entry arrays have grown and the loop is compiled
+        loop(cache, resIds, bitmaps, 20000);
+        threads.getThreadAllocatedBytes(threadId);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        loop(cache, resIds, bitmaps, 20000);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(cache.evictionCount() > 0);
+        assertEquals("bytes allocated by get/put", 0, allocated);
+    }
+
+    private static void loop(IntKeyFrameCache<Object> cache, int[] resIds, Object[] bitmaps, int
+        iterations) {
+        for (int i = 0; i < iterations; i++) {
+            int frame = i % resIds.length;
+            if (cache.get(resIds[frame]) == null) {
+                cache.put(resIds[frame], bitmaps[frame]);
+            }
+        }
+    }
+}
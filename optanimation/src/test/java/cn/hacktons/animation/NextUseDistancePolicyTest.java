@@ -0,0 +1,99 @@
+package cn.hacktons.animation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link NextUseDistancePolicy}
+ */
+public class NextUseDistancePolicyTest {
+
+    @Test
+    public void distanceWrapsAroundLoop() throws Exception {
+        NextUseDistancePolicy policy = new NextUseDistancePolicy(new int[]{1, 2, 3, 2}, true);
+        policy.setPlayhead(2);
+        assertEquals(0, policy.distance(3));
+        assertEquals(1, policy.distance(2));
+        assertEquals(2, policy.distance(1));
+        assertEquals(Integer.MAX_VALUE, policy.distance(9));
+    }
+
+    @Test
+    public void shownFramesOfOneShotAreNeverUsed() throws Exception {
+        NextUseDistancePolicy policy = new NextUseDistancePolicy(new int[]{1, 2, 3, 2}, false);
+        policy.setPlayhead(2);
+        assertEquals(Integer.MAX_VALUE, policy.distance(1));
+        assertEquals(1, policy.distance(2));
+        assertEquals(0, policy.distance(3));
+    }
+
+    @Test
+    public void walkListsEachKeyInPriorityOrder() throws Exception {
+        int[] frames = {1, 2, 3, 2, 4, 1, 5, 6};
+        for (boolean loop : new boolean[]{true, false}) {
+            NextUseDistancePolicy policy = new NextUseDistancePolicy(frames, loop);
+            for (int playhead = 0; playhead < frames.length; playhead++) {
+                policy.setPlayhead(playhead);
+                int[] walk = walk(policy);
+                int[] distinct = {1, 2, 3, 4, 5, 6};
+                int[] sorted = walk.clone();
+                Arrays.sort(sorted);
+                assertArrayEquals("each key once", distinct, sorted);
+                for (int i = 1; i < walk.length; i++) {
+                    assertTrue("priority order at playhead " + playhead,
+                        policy.priority(walk[i - 1]) >= policy.priority(walk[i]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cacheEvictsFurthestFrames() throws Exception {
+        int[] frames = new int[10];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = 100 + i;
+        }
+        NextUseDistancePolicy policy = new NextUseDistancePolicy(frames, true);
+        IntKeyFrameCache<String> cache = new IntKeyFrameCache<String>(10);
+        cache.setEvictionPolicy(policy);
+        for (int key : frames) {
+            cache.put(key, "frame");
+        }
+        policy.setPlayhead(7);
+        assertEquals(106, cache.victimKey());
+
+        cache.resize(4);
+        int[] kept = cache.keySnapshot();
+        Arrays.sort(kept);
+        assertArrayEquals(new int[]{100, 107, 108, 109}, kept);
+        assertEquals(6, cache.evictionCount());
+    }
+
+    @Test
+    public void cacheEvictsUnknownKeysFirst() throws Exception {
+        NextUseDistancePolicy policy = new NextUseDistancePolicy(new int[]{1, 2, 3}, true);
+        IntKeyFrameCache<String> cache = new IntKeyFrameCache<String>(4);
+        cache.setEvictionPolicy(policy);
+        cache.put(9, "stale");
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+        cache.resize(1);
+        assertArrayEquals(new int[]{1}, cache.keySnapshot());
+    }
+
+    private static int[] walk(NextUseDistancePolicy policy) {
+        int[] keys = new int[policy.candidateCount()];
+        int count = 0;
+        for (int step = 0; step < policy.candidateCount(); step++) {
+            int key = policy.candidateAt(step);
+            if (key != IntKeyFrameCache.NO_KEY) {
+                keys[count++] = key;
+            }
+        }
+        return Arrays.copyOf(keys, count);
+    }
+}
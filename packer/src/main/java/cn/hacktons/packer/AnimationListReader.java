@@ -0,0 +1,81 @@
+package cn.hacktons.packer;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Reads the frames of an {@code <animation-list>} drawable xml, such as
+ * {@code res/drawable/loading.xml}. Drawable references are resolved against the res directory
+ * the xml lives in, the least scaled density is preferred.
+ */
+final class AnimationListReader {
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+    private static final String[] QUALIFIERS = {
+        "-nodpi", "-xxxhdpi", "-xxhdpi", "-xhdpi", "-hdpi", "-mdpi", ""
+    };
+    private static final String[] EXTENSIONS = {".png", ".jpg", ".jpeg"};
+
+    private AnimationListReader() {
+    }
+
+    static List<ContainerPacker.Frame> read(File xml) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().parse(xml);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("can't parse " + xml, e);
+        }
+        Element root = document.getDocumentElement();
+        if (!"animation-list".equals(root.getTagName())) {
+            throw new IOException(xml + " is not an animation-list");
+        }
+        File res = xml.getAbsoluteFile().getParentFile().getParentFile();
+        List<ContainerPacker.Frame> frames = new ArrayList<>();
+        NodeList items = root.getElementsByTagName("item");
+        for (int i = 0; i < items.getLength(); i++) {
+            Element item = (Element) items.item(i);
+            String drawable = item.getAttributeNS(ANDROID_NS, "drawable");
+            String duration = item.getAttributeNS(ANDROID_NS, "duration");
+            if (drawable.isEmpty() || duration.isEmpty()) {
+                throw new IOException("item " + i + " of " + xml + " requires drawable and "
+                    + "duration");
+            }
+            frames.add(new ContainerPacker.Frame(resolve(res, drawable), Integer.parseInt
+                (duration)));
+        }
+        return frames;
+    }
+
+    /**
+     * @param reference such as {@code @drawable/frame_0}
+     */
+    private static File resolve(File res, String reference) throws IOException {
+        int slash = reference.indexOf('/');
+        if (!reference.startsWith("@") || slash < 0) {
+            throw new IOException("not a drawable reference: " + reference);
+        }
+        String type = reference.substring(1, slash);
+        String name = reference.substring(slash + 1);
+        for (String qualifier : QUALIFIERS) {
+            for (String extension : EXTENSIONS) {
+                File file = new File(new File(res, type + qualifier), name + extension);
+                if (file.isFile()) {
+                    return file;
+                }
+            }
+        }
+        throw new IOException("can't find " + reference + " in " + res);
+    }
+}
@@ -0,0 +1,121 @@
+package cn.hacktons.packer;
+
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Packs frames into a single indexed container, which is memory mapped and decoded in place by
+ * {@code cn.hacktons.animation.ContainerFrameSource}.
+ * <p>
+ * Format, big endian:
+ * <pre>
+ * int      magic 'FACN'
+ * int      version
+ * int      frame count
+ * int      flags, reserved
+ * for each frame, the index:
+ *   long   payload offset from the start of the file
+ *   int    payload length
+ *   int    width, height
+ *   int    duration in milliseconds
+ *   int    payload format, {@link #FORMAT_ENCODED} or {@link #FORMAT_RAW_ARGB_8888}
+ * payloads
+ * </pre>
+ * Encoded payloads are the original png/jpg files. Raw payloads are premultiplied RGBA bytes
+ * row by row, the memory layout of an ARGB_8888 bitmap, so they are copied into a bitmap
+ * without decoding.
+ */
+public final class ContainerPacker {
+    public static final int MAGIC = 0x4641434E;
+    public static final int VERSION = 1;
+    public static final int FORMAT_ENCODED = 0;
+    public static final int FORMAT_RAW_ARGB_8888 = 1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int INDEX_ENTRY_SIZE = 28;
+
+    private ContainerPacker() {
+    }
+
+    /**
+     * A frame image with how long it's shown
+     */
+    public static final class Frame {
+        final File file;
+        final int duration;
+
+        public Frame(File file, int duration) {
+            this.file = file;
+            this.duration = duration;
+        }
+    }
+
+    /**
+     * @param frames frames of the animation
+     * @param raw    true to store raw pixels instead of the encoded images
+     * @param out    stream the container is written to
+     */
+    public static void pack(List<Frame> frames, boolean raw, OutputStream out) throws IOException {
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("no frames");
+        }
+        byte[][] payloads = new byte[frames.size()][];
+        int[][] sizes = new int[frames.size()][];
+        for (int i = 0; i < frames.size(); i++) {
+            File file = frames.get(i).file;
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                throw new IOException("not an image: " + file);
+            }
+            sizes[i] = new int[]{image.getWidth(), image.getHeight()};
+            payloads[i] = raw ? premultipliedRgba(image) : Files.readAllBytes(file.toPath());
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(frames.size());
+        data.writeInt(0);
+        long offset = HEADER_SIZE + (long) INDEX_ENTRY_SIZE * frames.size();
+        for (int i = 0; i < frames.size(); i++) {
+            data.writeLong(offset);
+            data.writeInt(payloads[i].length);
+            data.writeInt(sizes[i][0]);
+            data.writeInt(sizes[i][1]);
+            data.writeInt(frames.get(i).duration);
+            data.writeInt(raw ? FORMAT_RAW_ARGB_8888 : FORMAT_ENCODED);
+            offset += payloads[i].length;
+        }
+        for (byte[] payload : payloads) {
+            data.write(payload);
+        }
+        data.flush();
+    }
+
+    static byte[] premultipliedRgba(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        byte[] rgba = new byte[pixels.length * 4];
+        for (int i = 0; i < pixels.length; i++) {
+            int pixel = pixels[i];
+            int alpha = pixel >>> 24;
+            rgba[i * 4] = (byte) premultiply((pixel >> 16) & 0xff, alpha);
+            rgba[i * 4 + 1] = (byte) premultiply((pixel >> 8) & 0xff, alpha);
+            rgba[i * 4 + 2] = (byte) premultiply(pixel & 0xff, alpha);
+            rgba[i * 4 + 3] = (byte) alpha;
+        }
+        return rgba;
+    }
+
+    private static int premultiply(int color, int alpha) {
+        return (color * alpha + 127) / 255;
+    }
+}
@@ -0,0 +1,124 @@
+package cn.hacktons.packer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Packs frames of the same size into a delta pack: the first frame as keyframe, and for each
+ * frame the rect which changed since the previous frame with a png patch of that rect.
+ * <p>
+ * Format, big endian:
+ * <pre>
+ * int      magic 'FADL'
+ * int      version
+ * int      width, height
+ * int      frame count
+ * int      keyframe length, followed by the png of frame 0
+ * for each frame i:
+ *   int    left, top, right, bottom of the rect changed since frame i - 1, empty if unchanged
+ *   int    patch length, followed by the png of the rect in frame i
+ * </pre>
+ * The patch of frame 0 is the change from the last frame, so a looping animation never goes back
+ * to the keyframe. Read by {@code cn.hacktons.animation.DeltaFrameSource}.
+ */
+public final class DeltaPacker {
+    public static final int MAGIC = 0x4641444C;
+    public static final int VERSION = 1;
+
+    private DeltaPacker() {
+    }
+
+    /**
+     * @param frames frames of the animation, all of the same size
+     * @param out    stream the pack is written to
+     */
+    public static void pack(List<BufferedImage> frames, OutputStream out) throws IOException {
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("no frames");
+        }
+        BufferedImage keyframe = frames.get(0);
+        int width = keyframe.getWidth();
+        int height = keyframe.getHeight();
+        int[][] pixels = new int[frames.size()][];
+        for (int i = 0; i < frames.size(); i++) {
+            BufferedImage frame = frames.get(i);
+            if (frame.getWidth() != width || frame.getHeight() != height) {
+                throw new IllegalArgumentException("frame " + i + " is " + frame.getWidth() + "x"
+                    + frame.getHeight() + ", expected " + width + "x" + height);
+            }
+            pixels[i] = frame.getRGB(0, 0, width, height, null, 0, width);
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(width);
+        data.writeInt(height);
+        data.writeInt(frames.size());
+        writeBlob(data, encode(keyframe));
+        int[] rect = new int[4];
+        for (int i = 0; i < frames.size(); i++) {
+            int previous = (i + frames.size() - 1) % frames.size();
+            diff(pixels[previous], pixels[i], width, height, rect);
+            for (int edge : rect) {
+                data.writeInt(edge);
+            }
+            if (rect[2] > rect[0]) {
+                writeBlob(data, encode(frames.get(i).getSubimage(rect[0], rect[1], rect[2] -
+                    rect[0], rect[3] - rect[1])));
+            } else {
+                data.writeInt(0);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Bounds of the pixels which differ between two frames
+     *
+     * @param rect left, top, right, bottom, all 0 if the frames are equal
+     */
+    static void diff(int[] from, int[] to, int width, int height, int[] rect) {
+        int left = width;
+        int top = height;
+        int right = 0;
+        int bottom = 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                if (from[row + x] != to[row + x]) {
+                    left = Math.min(left, x);
+                    right = Math.max(right, x + 1);
+                    top = Math.min(top, y);
+                    bottom = y + 1;
+                }
+            }
+        }
+        if (right <= left) {
+            left = top = right = bottom = 0;
+        }
+        rect[0] = left;
+        rect[1] = top;
+        rect[2] = right;
+        rect[3] = bottom;
+    }
+
+    static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "png", png)) {
+            throw new IOException("no png writer");
+        }
+        return png.toByteArray();
+    }
+
+    private static void writeBlob(DataOutputStream data, byte[] blob) throws IOException {
+        data.writeInt(blob.length);
+        data.write(blob);
+    }
+}
@@ -0,0 +1,137 @@
+package cn.hacktons.packer;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Command line entry of the animation packer
+ * <pre>
+ * packer delta &lt;output&gt; &lt;frame directory | frame files...&gt;
+ * packer container [--raw] [--duration ms] &lt;output&gt;
+ *     &lt;animation-list xml | frame directory | frame files...&gt;
+ * </pre>
+ * Frames of a directory are ordered by file name.
+ */
+public final class Packer {
+    private static final String USAGE = "usage:\n"
+        + "  packer delta <output> <frame directory | frame files...>\n"
+        + "  packer container [--raw] [--duration ms] <output> <animation-list xml | frame "
+        + "directory | frame files...>";
+    private static final int DEFAULT_DURATION = 1000 / 30;
+
+    private Packer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && "delta".equals(args[0])) {
+            delta(args);
+        } else if (args.length >= 3 && "container".equals(args[0])) {
+            container(args);
+        } else {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+    }
+
+    private static void delta(String[] args) throws IOException {
+        File output = new File(args[1]);
+        List<File> inputs = listFrames(Arrays.copyOfRange(args, 2, args.length));
+        List<BufferedImage> frames = readFrames(inputs);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        try {
+            DeltaPacker.pack(frames, out);
+        } finally {
+            out.close();
+        }
+        System.out.println("packed " + frames.size() + " frames into " + output + ", " + output
+            .length() + " bytes");
+    }
+
+    private static void container(String[] args) throws IOException {
+        boolean raw = false;
+        int duration = DEFAULT_DURATION;
+        int i = 1;
+        for (; i < args.length && args[i].startsWith("--"); i++) {
+            if ("--raw".equals(args[i])) {
+                raw = true;
+            } else if ("--duration".equals(args[i]) && i + 1 < args.length) {
+                duration = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println(USAGE);
+                System.exit(2);
+                return;
+            }
+        }
+        if (args.length - i < 2) {
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        File output = new File(args[i]);
+        String[] paths = Arrays.copyOfRange(args, i + 1, args.length);
+        List<ContainerPacker.Frame> frames = new ArrayList<>();
+        if (paths.length == 1 && paths[0].endsWith(".xml")) {
+            frames.addAll(AnimationListReader.read(new File(paths[0])));
+        } else {
+            for (File file : listFrames(paths)) {
+                frames.add(new ContainerPacker.Frame(file, duration));
+            }
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        try {
+            ContainerPacker.pack(frames, raw, out);
+        } finally {
+            out.close();
+        }
+        System.out.println("packed " + frames.size() + " frames into " + output + ", " + output
+            .length() + " bytes");
+    }
+
+    /**
+     * @param paths a directory of frames or frame files
+     */
+    static List<File> listFrames(String[] paths) {
+        List<File> files = new ArrayList<>();
+        if (paths.length == 1 && new File(paths[0]).isDirectory()) {
+            File[] images = new File(paths[0]).listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    String name = file.getName().toLowerCase();
+                    return file.isFile() && (name.endsWith(".png") || name.endsWith(".jpg")
+                        || name.endsWith(".jpeg"));
+                }
+            });
+            if (images != null) {
+                Arrays.sort(images);
+                files.addAll(Arrays.asList(images));
+            }
+        } else {
+            for (String path : paths) {
+                files.add(new File(path));
+            }
+        }
+        return files;
+    }
+
+    static List<BufferedImage> readFrames(List<File> files) throws IOException {
+        List<BufferedImage> frames = new ArrayList<>(files.size());
+        for (File file : files) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                throw new IOException("not an image: " + file);
+            }
+            frames.add(image);
+        }
+        return frames;
+    }
+}